@@ -0,0 +1,121 @@
+package org.kitteh.pakkit;
+
+import java.io.InputStreamReader;
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import net.minecraft.server.v1_7_R1.PacketPlayOutAbilities;
+import net.minecraft.server.v1_7_R1.PacketPlayOutRelEntityMove;
+
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.CharStreams;
+
+/*
+ * PacketRegistry is keyed on the real NMS classes, so those are used for the
+ * registry paths, bound from the bundled mappings. They construct fine
+ * without a server.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Measurement(iterations = 5)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5)
+public class FormatBenchmark {
+    private PacketPlayOutAbilities abilities;
+    private PacketPlayOutRelEntityMove move;
+    private StandInPackets.Move standInMove;
+    private PakkitPacket full;
+    private PakkitPacket mapped;
+    private Field field;
+    private FieldAccessor accessor;
+    private final StringBuilder builder = new StringBuilder(256);
+
+    @Setup
+    public void setup() throws Exception {
+        final YamlConfiguration mappings = new YamlConfiguration();
+        try (InputStreamReader reader = new InputStreamReader(FormatBenchmark.class.getResourceAsStream("/mappings/v1_7_R1.yml"), Charsets.UTF_8)) {
+            mappings.loadFromString(CharStreams.toString(reader));
+        }
+        PacketRegistry.register(PacketMappings.bind(mappings, "net.minecraft.server.v1_7_R1", Logger.getLogger("FormatBenchmark")));
+        this.abilities = new PacketPlayOutAbilities();
+        StandInPackets.set(this.abilities, "a", true);
+        StandInPackets.set(this.abilities, "e", 0.05F);
+        this.move = new PacketPlayOutRelEntityMove();
+        StandInPackets.set(this.move, "a", 1234);
+        StandInPackets.set(this.move, "b", (byte) 3);
+        this.standInMove = new StandInPackets.Move();
+        this.field = StandInPackets.Move.class.getDeclaredField("a");
+        this.field.setAccessible(true);
+        this.accessor = FieldAccessor.of(this.field);
+        this.full = new PakkitPacket(StandInPackets.Move.class, true, true);
+        this.mapped = new PakkitPacket(StandInPackets.Move.class, true, false);
+        for (final PakkitPacket packet : new PakkitPacket[] { this.full, this.mapped }) {
+            packet.map("a", "EntityID");
+            packet.map("b", "X");
+            packet.map("c", "Y");
+            packet.map("d", "Z");
+        }
+    }
+
+    @Benchmark
+    public StringBuilder appendFull() {
+        this.builder.setLength(0);
+        this.full.print(this.builder, this.standInMove);
+        return this.builder;
+    }
+
+    @Benchmark
+    public StringBuilder appendRegistryMove() {
+        this.builder.setLength(0);
+        PacketRegistry.appendOutput(this.builder, this.move);
+        return this.builder;
+    }
+
+    @Benchmark
+    public String printFull() {
+        return this.full.print(this.standInMove);
+    }
+
+    @Benchmark
+    public String printMapped() {
+        return this.mapped.print(this.standInMove);
+    }
+
+    /*
+     * The single read, old Field path against the accessor.
+     */
+    @Benchmark
+    public int readAccessor() {
+        return this.accessor.getInt(this.standInMove);
+    }
+
+    @Benchmark
+    public int readField() throws IllegalAccessException {
+        return this.field.getInt(this.standInMove);
+    }
+
+    @Benchmark
+    public String registryAbilities() {
+        return PacketRegistry.getOutput(this.abilities);
+    }
+
+    @Benchmark
+    public String registryMove() {
+        return PacketRegistry.getOutput(this.move);
+    }
+}
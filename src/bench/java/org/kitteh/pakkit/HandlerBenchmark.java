@@ -0,0 +1,65 @@
+package org.kitteh.pakkit;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import net.minecraft.util.io.netty.channel.embedded.EmbeddedChannel;
+
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * One outbound write through the handler. Disabled is the fast path every
+ * packet takes, enabled includes handing the packet to the pipeline.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Measurement(iterations = 5)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5)
+public class HandlerBenchmark {
+    @Param({ "false", "true" })
+    public boolean enabled;
+    @Param({ "false", "true" })
+    public boolean stats;
+
+    private Pakkit pakkit;
+    private EmbeddedChannel channel;
+    private StandInPackets.Move packet;
+
+    @Setup
+    public void setup() {
+        this.pakkit = new Pakkit(Logger.getLogger("Benchmark"));
+        this.pakkit.getPacket(StandInPackets.Move.class).setEnabled(this.enabled);
+        this.pakkit.getStats().setEnabled(this.stats);
+        final Player player = StandInPackets.player();
+        // Watching themselves, otherwise nothing gets past the handler
+        this.pakkit.getSubscriptions().subscribe(new Subscriptions.Subscription(player, player.getUniqueId(), player.getName(), null));
+        this.channel = new EmbeddedChannel(this.pakkit.createHandler(player));
+        this.packet = new StandInPackets.Move();
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.channel.finish();
+        this.pakkit.shutdown();
+    }
+
+    @Benchmark
+    public Object write() {
+        this.channel.writeOutbound(this.packet);
+        return this.channel.readOutbound();
+    }
+}
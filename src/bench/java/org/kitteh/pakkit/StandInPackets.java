@@ -0,0 +1,64 @@
+package org.kitteh.pakkit;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.UUID;
+
+import org.bukkit.entity.Player;
+
+/*
+ * Same field layout as an NMS packet PacketRegistry maps, without needing a
+ * server around it. The registry paths use the real packets.
+ */
+final class StandInPackets {
+    static final class Move {
+        private int a = 1234;
+        private byte b = 3;
+        private byte c = -2;
+        private byte d = 1;
+        private byte e;
+        private byte f;
+        private boolean g;
+    }
+
+    static Player player() {
+        final UUID uuid = UUID.randomUUID();
+        return (Player) Proxy.newProxyInstance(StandInPackets.class.getClassLoader(), new Class<?>[] { Player.class }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                    case "getUniqueId":
+                        return uuid;
+                    case "getName":
+                        return "Benchmark";
+                    case "hashCode":
+                        return uuid.hashCode();
+                    case "equals":
+                        return proxy == args[0];
+                    default:
+                        return method.getReturnType() == boolean.class ? Boolean.FALSE : null;
+                }
+            }
+        });
+    }
+
+    static void set(Object packet, String fieldName, Object value) throws ReflectiveOperationException {
+        Class<?> clazz = packet.getClass();
+        while (clazz != null) {
+            try {
+                final Field field = clazz.getDeclaredField(fieldName);
+                field.setAccessible(true);
+                field.set(packet, value);
+                return;
+            } catch (final NoSuchFieldException e) {
+                clazz = clazz.getSuperclass();
+            }
+        }
+        throw new NoSuchFieldException(fieldName);
+    }
+
+    private StandInPackets() {
+    }
+}
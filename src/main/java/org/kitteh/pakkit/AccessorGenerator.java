@@ -0,0 +1,326 @@
+/*
+ * Copyright 2012-2013 Matt Baxter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitteh.pakkit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * A MethodHandle in an instance field is no constant to the JIT, so calling
+ * it stays an indirect call and loses to plain Field.get. Instead each field
+ * gets a tiny class of its own, holding the handle in a static final, which
+ * the JIT folds down to a plain field read. The class extends the typed
+ * accessor and overrides just its one getter:
+ *
+ *     T getT(Object o) {
+ *         try {
+ *             return (T) H.invokeExact(o);
+ *         } catch (final Throwable t) {
+ *             throw FieldAccessor.fail(this, t);
+ *         }
+ *     }
+ *
+ * Short enough to write out by hand. Should defining it fail, that gets
+ * logged once and from then on FieldAccessor keeps the instance handle.
+ */
+final class AccessorGenerator {
+    private static final class Pool {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        private final DataOutputStream out = new DataOutputStream(this.bytes);
+        private final Map<String, Integer> entries = new HashMap<>();
+        private int next = 1;
+
+        int clazz(String name) throws IOException {
+            return this.entry("C" + name, 7, this.utf(name), -1);
+        }
+
+        int field(String owner, String name, String type) throws IOException {
+            return this.entry("F" + owner + '.' + name, 9, this.clazz(owner), this.nameAndType(name, type));
+        }
+
+        int method(String owner, String name, String type) throws IOException {
+            return this.entry("M" + owner + '.' + name + type, 10, this.clazz(owner), this.nameAndType(name, type));
+        }
+
+        int string(String value) throws IOException {
+            return this.entry("S" + value, 8, this.utf(value), -1);
+        }
+
+        int utf(String value) throws IOException {
+            final Integer index = this.entries.get("U" + value);
+            if (index != null) {
+                return index;
+            }
+            this.out.writeByte(1);
+            this.out.writeUTF(value);
+            this.entries.put("U" + value, this.next);
+            return this.next++;
+        }
+
+        void writeTo(DataOutputStream target) throws IOException {
+            target.writeShort(this.next);
+            this.out.flush();
+            this.bytes.writeTo(target);
+        }
+
+        private int entry(String key, int tag, int first, int second) throws IOException {
+            final Integer index = this.entries.get(key);
+            if (index != null) {
+                return index;
+            }
+            this.out.writeByte(tag);
+            this.out.writeShort(first);
+            if (second >= 0) {
+                this.out.writeShort(second);
+            }
+            this.entries.put(key, this.next);
+            return this.next++;
+        }
+
+        private int nameAndType(String name, String type) throws IOException {
+            return this.entry("N" + name + ':' + type, 12, this.utf(name), this.utf(type));
+        }
+    }
+
+    private static final String ACCESSOR = AccessorGenerator.internal(FieldAccessor.class);
+    private static final String GENERATOR = AccessorGenerator.internal(AccessorGenerator.class);
+    private static final String HANDLE = "Ljava/lang/invoke/MethodHandle;";
+    private static final AtomicInteger COUNT = new AtomicInteger();
+    private static final ConcurrentMap<String, MethodHandle> HANDLES = new ConcurrentHashMap<>();
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static volatile boolean broken;
+    private static volatile Logger logger = Logger.getLogger(AccessorGenerator.class.getName());
+
+    /*
+     * The new accessor, or null if it couldn't be made.
+     */
+    static FieldAccessor define(Class<? extends FieldAccessor> base, String getter, Field field, MethodHandle handle) {
+        if (AccessorGenerator.broken) {
+            return null;
+        }
+        final String name = AccessorGenerator.GENERATOR + "$Field" + AccessorGenerator.COUNT.incrementAndGet();
+        AccessorGenerator.HANDLES.put(name, handle);
+        try {
+            final byte[] bytes = AccessorGenerator.write(name, AccessorGenerator.internal(base), getter, handle.type().returnType());
+            final Constructor<?> constructor = AccessorGenerator.load(name.replace('/', '.'), bytes).getDeclaredConstructor(Field.class, MethodHandle.class);
+            constructor.setAccessible(true);
+            return (FieldAccessor) constructor.newInstance(field, handle);
+        } catch (final Exception | LinkageError e) {
+            AccessorGenerator.fail(e);
+            return null;
+        } finally {
+            AccessorGenerator.HANDLES.remove(name);
+        }
+    }
+
+    /*
+     * Called once, from the static initializer of the named class.
+     */
+    static MethodHandle handle(String name) {
+        return AccessorGenerator.HANDLES.get(name);
+    }
+
+    /*
+     * Tries generating again, for tests.
+     */
+    static synchronized void reset() {
+        AccessorGenerator.broken = false;
+    }
+
+    /*
+     * Where a failure gets reported, the plugin's own once it's up.
+     */
+    static void setLogger(Logger logger) {
+        AccessorGenerator.logger = logger;
+    }
+
+    private static void code(DataOutputStream out, Pool pool, int stack, int locals, byte[] code, int handler) throws IOException {
+        out.writeShort(pool.utf("Code"));
+        out.writeInt(12 + code.length + (handler < 0 ? 0 : 20));
+        out.writeShort(stack);
+        out.writeShort(locals);
+        out.writeInt(code.length);
+        out.write(code);
+        if (handler < 0) {
+            out.writeShort(0);
+            out.writeShort(0);
+            return;
+        }
+        final int throwable = pool.clazz("java/lang/Throwable");
+        out.writeShort(1);
+        out.writeShort(0);
+        out.writeShort(handler);
+        out.writeShort(handler);
+        out.writeShort(throwable);
+        /* One frame at the handler: same locals, a Throwable on the stack */
+        out.writeShort(1);
+        out.writeShort(pool.utf("StackMapTable"));
+        out.writeInt(6);
+        out.writeShort(1);
+        out.writeByte(64 + handler);
+        out.writeByte(7);
+        out.writeShort(throwable);
+    }
+
+    private static String descriptor(Class<?> type) {
+        if (type == boolean.class) {
+            return "Z";
+        } else if (type == byte.class) {
+            return "B";
+        } else if (type == char.class) {
+            return "C";
+        } else if (type == double.class) {
+            return "D";
+        } else if (type == float.class) {
+            return "F";
+        } else if (type == int.class) {
+            return "I";
+        } else if (type == long.class) {
+            return "J";
+        } else if (type == short.class) {
+            return "S";
+        }
+        return "Ljava/lang/Object;";
+    }
+
+    private static synchronized void fail(Throwable thrown) {
+        if (AccessorGenerator.broken) {
+            return;
+        }
+        AccessorGenerator.broken = true;
+        AccessorGenerator.logger.log(Level.WARNING, "Could not generate field accessors, reading fields the slower way", thrown);
+    }
+
+    private static String internal(Class<?> clazz) {
+        return clazz.getName().replace('.', '/');
+    }
+
+    /*
+     * Lookup.defineClass on 9 and up, ClassLoader.defineClass before that.
+     */
+    private static Class<?> load(String name, byte[] bytes) throws Exception {
+        try {
+            final Method define = MethodHandles.Lookup.class.getMethod("defineClass", byte[].class);
+            return (Class<?>) define.invoke(AccessorGenerator.LOOKUP, (Object) bytes);
+        } catch (final NoSuchMethodException e) {
+            final Method define = ClassLoader.class.getDeclaredMethod("defineClass", String.class, byte[].class, int.class, int.class);
+            define.setAccessible(true);
+            return (Class<?>) define.invoke(AccessorGenerator.class.getClassLoader(), name, bytes, 0, bytes.length);
+        }
+    }
+
+    private static byte[] write(String name, String base, String getter, Class<?> type) throws IOException {
+        final Pool pool = new Pool();
+        final String getterType = "(Ljava/lang/Object;)" + AccessorGenerator.descriptor(type);
+        final int h = pool.field(name, "H", AccessorGenerator.HANDLE);
+        final int invoke = pool.method("java/lang/invoke/MethodHandle", "invokeExact", getterType);
+        final int fail = pool.method(AccessorGenerator.ACCESSOR, "fail", "(L" + AccessorGenerator.ACCESSOR + ";Ljava/lang/Throwable;)Ljava/lang/IllegalStateException;");
+        final int lookup = pool.method(AccessorGenerator.GENERATOR, "handle", "(Ljava/lang/String;)" + AccessorGenerator.HANDLE);
+        final int init = pool.method(base, "<init>", "(Ljava/lang/reflect/Field;" + AccessorGenerator.HANDLE + ")V");
+        final int key = pool.string(name);
+        final int returns;
+        if (type == long.class) {
+            returns = 0xAD;
+        } else if (type == float.class) {
+            returns = 0xAE;
+        } else if (type == double.class) {
+            returns = 0xAF;
+        } else if (type.isPrimitive()) {
+            returns = 0xAC;
+        } else {
+            returns = 0xB0;
+        }
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        final DataOutputStream body = new DataOutputStream(bytes);
+        body.writeShort(0x0010 | 0x0020); // final, super
+        body.writeShort(pool.clazz(name));
+        body.writeShort(pool.clazz(base));
+        body.writeShort(0);
+
+        body.writeShort(1);
+        body.writeShort(0x0002 | 0x0008 | 0x0010); // private static final
+        body.writeShort(pool.utf("H"));
+        body.writeShort(pool.utf(AccessorGenerator.HANDLE));
+        body.writeShort(0);
+
+        body.writeShort(3);
+        body.writeShort(0);
+        body.writeShort(pool.utf("<init>"));
+        body.writeShort(pool.utf("(Ljava/lang/reflect/Field;" + AccessorGenerator.HANDLE + ")V"));
+        body.writeShort(1);
+        AccessorGenerator.code(body, pool, 3, 3, new byte[] {
+                0x2A, // aload_0
+                0x2B, // aload_1
+                0x2C, // aload_2
+                (byte) 0xB7, (byte) (init >> 8), (byte) init, // invokespecial super
+                (byte) 0xB1 // return
+        }, -1);
+
+        body.writeShort(0x0008); // static
+        body.writeShort(pool.utf("<clinit>"));
+        body.writeShort(pool.utf("()V"));
+        body.writeShort(1);
+        AccessorGenerator.code(body, pool, 1, 0, new byte[] {
+                0x13, (byte) (key >> 8), (byte) key, // ldc_w name
+                (byte) 0xB8, (byte) (lookup >> 8), (byte) lookup, // invokestatic handle
+                (byte) 0xB3, (byte) (h >> 8), (byte) h, // putstatic H
+                (byte) 0xB1 // return
+        }, -1);
+
+        body.writeShort(0);
+        body.writeShort(pool.utf(getter));
+        body.writeShort(pool.utf(getterType));
+        body.writeShort(1);
+        AccessorGenerator.code(body, pool, 2, 3, new byte[] {
+                (byte) 0xB2, (byte) (h >> 8), (byte) h, // getstatic H
+                0x2B, // aload_1
+                (byte) 0xB6, (byte) (invoke >> 8), (byte) invoke, // invokevirtual invokeExact
+                (byte) returns,
+                0x4D, // astore_2
+                0x2A, // aload_0
+                0x2C, // aload_2
+                (byte) 0xB8, (byte) (fail >> 8), (byte) fail, // invokestatic fail
+                (byte) 0xBF // athrow
+        }, 8);
+
+        body.writeShort(0);
+        body.flush();
+
+        final ByteArrayOutputStream file = new ByteArrayOutputStream(bytes.size() + 512);
+        final DataOutputStream out = new DataOutputStream(file);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(51); // Java 7
+        pool.writeTo(out);
+        bytes.writeTo(out);
+        out.flush();
+        return file.toByteArray();
+    }
+}
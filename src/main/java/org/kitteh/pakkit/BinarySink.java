@@ -0,0 +1,111 @@
+/*
+ * Copyright 2012-2013 Matt Baxter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitteh.pakkit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/*
+ * Length-prefixed frames for external tooling, big-endian throughout:
+ * int payload length, then long time, long tick, long uuid most, long uuid
+ * least, byte direction (0 in, 1 out), utf packet name, short field count,
+ * then per field: utf name, byte type (as in CaptureFormat), value. Strings
+ * are DataOutput's modified UTF-8. In delta mode only changed fields are sent.
+ * Goes to a file or fifo, see StreamSink.
+ */
+final class BinarySink extends StreamSink {
+    static final String NAME = "binary";
+
+    private final ByteArrayOutputStream frame = new ByteArrayOutputStream(512);
+    private final DataOutputStream frameOut = new DataOutputStream(this.frame);
+
+    BinarySink(File file, Logger logger, int capacity) {
+        super(BinarySink.NAME, file, logger, capacity);
+    }
+
+    @Override
+    void encode(DataOutputStream out, CapturedPacket captured) throws IOException {
+        final PakkitPacket pak = captured.getPakkitPacket();
+        final Object packet = captured.getPacket();
+        final UUID uuid = captured.getPlayer().getUniqueId();
+        final DataOutputStream frameOut = this.frameOut;
+        this.frame.reset();
+        frameOut.writeLong(captured.getTime());
+        frameOut.writeLong(captured.getTick());
+        frameOut.writeLong(uuid.getMostSignificantBits());
+        frameOut.writeLong(uuid.getLeastSignificantBits());
+        frameOut.writeByte(pak.getDirection() == PakkitPacket.Direction.INBOUND ? 0 : 1);
+        frameOut.writeUTF(Pakkit.getName(pak.getPacketClass()));
+        final PakkitPacket.Plan plan = pak.getPlan();
+        final long changed = captured.getChanged();
+        int count = 0;
+        for (int i = 0; i < plan.size(); i++) {
+            if ((changed == DeltaStore.ALL) || DeltaStore.isChanged(changed, i)) {
+                count++;
+            }
+        }
+        frameOut.writeShort(count);
+        for (int i = 0; i < plan.size(); i++) {
+            if ((changed != DeltaStore.ALL) && !DeltaStore.isChanged(changed, i)) {
+                continue;
+            }
+            final FieldAccessor accessor = plan.getAccessor(i);
+            final byte type = CaptureFormat.typeOf(accessor.getType());
+            frameOut.writeUTF(plan.getName(i));
+            frameOut.writeByte(type);
+            switch (type) {
+                case CaptureFormat.TYPE_BOOLEAN:
+                    frameOut.writeBoolean(accessor.getBoolean(packet));
+                    break;
+                case CaptureFormat.TYPE_BYTE:
+                    frameOut.writeByte(accessor.getByte(packet));
+                    break;
+                case CaptureFormat.TYPE_CHAR:
+                    frameOut.writeChar(accessor.getChar(packet));
+                    break;
+                case CaptureFormat.TYPE_DOUBLE:
+                    frameOut.writeDouble(accessor.getDouble(packet));
+                    break;
+                case CaptureFormat.TYPE_FLOAT:
+                    frameOut.writeFloat(accessor.getFloat(packet));
+                    break;
+                case CaptureFormat.TYPE_INT:
+                    frameOut.writeInt(accessor.getInt(packet));
+                    break;
+                case CaptureFormat.TYPE_LONG:
+                    frameOut.writeLong(accessor.getLong(packet));
+                    break;
+                case CaptureFormat.TYPE_SHORT:
+                    frameOut.writeShort(accessor.getShort(packet));
+                    break;
+                default:
+                    String value = String.valueOf(accessor.get(packet));
+                    // writeUTF gives up past 64k
+                    if (value.length() > 16384) {
+                        value = value.substring(0, 16384);
+                    }
+                    frameOut.writeUTF(value);
+            }
+        }
+        frameOut.flush();
+        out.writeInt(this.frame.size());
+        this.frame.writeTo(out);
+    }
+}
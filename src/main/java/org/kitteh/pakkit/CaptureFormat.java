@@ -0,0 +1,117 @@
+/*
+ * Copyright 2012-2013 Matt Baxter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitteh.pakkit;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/*
+ * Layout of a recorded segment. Kept free of Bukkit so captures can be read
+ * back without a server.
+ *
+ * Segment header: int magic, short version, long start time.
+ * Then frames of: int length, byte type, payload. A length of zero is the end.
+ * Closed segments end on an explicit zero, after which the file is truncated
+ * where the platform allows it (not Windows, while the mapping is alive).
+ * A segment cut short runs into the zero fill of its mapping instead.
+ *
+ * CLASS payload: short id, string name, string class, short field count,
+ * then per field: string name, byte type (JVM descriptor letter, L = string,
+ * O = decoded output).
+ * PACKET payload: long time, long server tick, long uuid most, long uuid
+ * least, short class id, then each field value as declared by its CLASS
+ * frame.
+ *
+ * Decoded output is stored as a string holding the items the mappings printed
+ * for that field, such as "animation": "Swing arm". That can be several items,
+ * or none at all. It's shown as is.
+ *
+ * Strings are a short byte length followed by UTF-8.
+ *
+ * Each finished segment gets an index file next to it: int magic, short
+ * version, long first time, long last time, int packet count, short class
+ * count, then per class: string name, int count, then int player count and
+ * per player: long uuid most, long uuid least. Segments without one (crash,
+ * still being written) just get scanned.
+ */
+final class CaptureFormat {
+    static final int MAGIC = 0x50414B4B;
+    static final int INDEX_MAGIC = 0x50414B49;
+    static final short VERSION = 3;
+    static final int HEADER_SIZE = 4 + 2 + 8;
+
+    static final byte FRAME_CLASS = 1;
+    static final byte FRAME_PACKET = 2;
+
+    static final byte TYPE_BOOLEAN = 'Z';
+    static final byte TYPE_BYTE = 'B';
+    static final byte TYPE_CHAR = 'C';
+    static final byte TYPE_DECODED = 'O';
+    static final byte TYPE_DOUBLE = 'D';
+    static final byte TYPE_FLOAT = 'F';
+    static final byte TYPE_INT = 'I';
+    static final byte TYPE_LONG = 'J';
+    static final byte TYPE_SHORT = 'S';
+    static final byte TYPE_STRING = 'L';
+
+    static final String EXTENSION = ".pakkit";
+    static final String INDEX_EXTENSION = ".idx";
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int MAX_STRING = Short.MAX_VALUE;
+
+    static String getString(ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, CaptureFormat.UTF_8);
+    }
+
+    static void putString(ByteBuffer buffer, String string) {
+        byte[] bytes = string.getBytes(CaptureFormat.UTF_8);
+        if (bytes.length > CaptureFormat.MAX_STRING) {
+            final byte[] cut = new byte[CaptureFormat.MAX_STRING];
+            System.arraycopy(bytes, 0, cut, 0, cut.length);
+            bytes = cut;
+        }
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    static byte typeOf(Class<?> clazz) {
+        if (clazz == boolean.class) {
+            return CaptureFormat.TYPE_BOOLEAN;
+        } else if (clazz == byte.class) {
+            return CaptureFormat.TYPE_BYTE;
+        } else if (clazz == char.class) {
+            return CaptureFormat.TYPE_CHAR;
+        } else if (clazz == double.class) {
+            return CaptureFormat.TYPE_DOUBLE;
+        } else if (clazz == float.class) {
+            return CaptureFormat.TYPE_FLOAT;
+        } else if (clazz == int.class) {
+            return CaptureFormat.TYPE_INT;
+        } else if (clazz == long.class) {
+            return CaptureFormat.TYPE_LONG;
+        } else if (clazz == short.class) {
+            return CaptureFormat.TYPE_SHORT;
+        }
+        return CaptureFormat.TYPE_STRING;
+    }
+
+    private CaptureFormat() {
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ * Copyright 2012-2013 Matt Baxter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitteh.pakkit;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/*
+ * Offline reader for recorded captures. Runs without Bukkit:
+ *
+ * java -jar pakkit.jar <capture dir> [--player uuid] [--type name[,name]]
+ *     [--entity id] [--from millis] [--to millis] [--count]
+ *
+ * Segments are streamed one at a time, so memory stays flat no matter how
+ * big the capture is. Segment indexes let us skip files that can't match.
+ */
+public final class CaptureQuery {
+    private static final class ClassInfo {
+        private final String name;
+        private final String[] fields;
+        private final byte[] types;
+        private final boolean hasEntity;
+
+        private ClassInfo(String name, String[] fields, byte[] types) {
+            this.name = name;
+            this.fields = fields;
+            this.types = types;
+            boolean hasEntity = false;
+            for (int i = 0; i < fields.length; i++) {
+                if (CaptureQuery.isEntityField(fields[i], types[i])) {
+                    hasEntity = true;
+                }
+            }
+            this.hasEntity = hasEntity;
+        }
+    }
+
+    private static final String ENTITY_ID = "EntityID";
+    private static final String USAGE = "Usage: <capture dir> [--player uuid] [--type name[,name]] [--entity id] [--from millis] [--to millis] [--count]";
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println(CaptureQuery.USAGE);
+            System.exit(1);
+        }
+        final CaptureQuery query = new CaptureQuery();
+        try {
+            for (int i = 1; i < args.length; i++) {
+                final String arg = args[i];
+                if (arg.equals("--count")) {
+                    query.count = true;
+                    continue;
+                }
+                if ((i + 1) >= args.length) {
+                    throw new IllegalArgumentException("Missing value for " + arg);
+                }
+                final String value = args[++i];
+                switch (arg) {
+                    case "--player":
+                        query.player = UUID.fromString(value);
+                        break;
+                    case "--type":
+                        for (final String type : value.split(",")) {
+                            query.types.add(type.toUpperCase());
+                        }
+                        break;
+                    case "--entity":
+                        query.entity = Integer.valueOf(value);
+                        break;
+                    case "--from":
+                        query.from = Long.parseLong(value);
+                        break;
+                    case "--to":
+                        query.to = Long.parseLong(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            }
+        } catch (final IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(CaptureQuery.USAGE);
+            System.exit(1);
+        }
+        try {
+            query.run(new File(args[0]), System.out);
+        } catch (final IOException e) {
+            System.err.println("Could not read capture: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static boolean isEntityField(String name, byte type) {
+        return name.startsWith(CaptureQuery.ENTITY_ID) && (type == CaptureFormat.TYPE_INT);
+    }
+
+    private UUID player;
+    private final Set<String> types = new HashSet<>();
+    private Integer entity;
+    private long from = Long.MIN_VALUE;
+    private long to = Long.MAX_VALUE;
+    private boolean count;
+    private final Map<String, long[]> counts = new HashMap<>();
+    private final StringBuilder builder = new StringBuilder();
+
+    void run(File directory, PrintStream out) throws IOException {
+        final File[] segments = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(CaptureFormat.EXTENSION);
+            }
+        });
+        if (segments == null) {
+            throw new IOException(directory + " is not a directory");
+        }
+        Arrays.sort(segments);
+        for (final File segment : segments) {
+            if (this.canSkip(segment)) {
+                continue;
+            }
+            this.read(segment, out);
+        }
+        if (this.count) {
+            final List<Map.Entry<String, long[]>> entries = new ArrayList<>(this.counts.entrySet());
+            Collections.sort(entries, new Comparator<Map.Entry<String, long[]>>() {
+                @Override
+                public int compare(Map.Entry<String, long[]> a, Map.Entry<String, long[]> b) {
+                    return Long.compare(b.getValue()[0], a.getValue()[0]);
+                }
+            });
+            for (final Map.Entry<String, long[]> entry : entries) {
+                out.println(entry.getKey() + " " + entry.getValue()[0]);
+            }
+        }
+    }
+
+    private void append(ByteBuffer buffer, byte type) {
+        switch (type) {
+            case CaptureFormat.TYPE_BOOLEAN:
+                this.builder.append(buffer.get() != 0);
+                break;
+            case CaptureFormat.TYPE_BYTE:
+                this.builder.append(buffer.get());
+                break;
+            case CaptureFormat.TYPE_CHAR:
+                this.builder.append(buffer.getChar());
+                break;
+            case CaptureFormat.TYPE_DOUBLE:
+                this.builder.append(buffer.getDouble());
+                break;
+            case CaptureFormat.TYPE_FLOAT:
+                this.builder.append(buffer.getFloat());
+                break;
+            case CaptureFormat.TYPE_INT:
+                this.builder.append(buffer.getInt());
+                break;
+            case CaptureFormat.TYPE_LONG:
+                this.builder.append(buffer.getLong());
+                break;
+            case CaptureFormat.TYPE_SHORT:
+                this.builder.append(buffer.getShort());
+                break;
+            default:
+                this.builder.append(CaptureFormat.getString(buffer));
+        }
+    }
+
+    private boolean canSkip(File segment) throws IOException {
+        final String name = segment.getName();
+        final File indexFile = new File(segment.getParentFile(), name.substring(0, name.length() - CaptureFormat.EXTENSION.length()) + CaptureFormat.INDEX_EXTENSION);
+        if (!indexFile.isFile()) {
+            return false;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(indexFile, "r")) {
+            final ByteBuffer index = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            if ((index.getInt() != CaptureFormat.INDEX_MAGIC) || (index.getShort() != CaptureFormat.VERSION)) {
+                return false;
+            }
+            final long first = index.getLong();
+            final long last = index.getLong();
+            if ((last < this.from) || (first > this.to)) {
+                return true;
+            }
+            index.getInt();
+            boolean typeFound = this.types.isEmpty();
+            final int classes = index.getShort();
+            for (int i = 0; i < classes; i++) {
+                final String type = CaptureFormat.getString(index).toUpperCase();
+                index.getInt();
+                typeFound |= this.types.contains(type);
+            }
+            if (!typeFound) {
+                return true;
+            }
+            if (this.player == null) {
+                return false;
+            }
+            final int players = index.getInt();
+            for (int i = 0; i < players; i++) {
+                if ((index.getLong() == this.player.getMostSignificantBits()) & (index.getLong() == this.player.getLeastSignificantBits())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private boolean matchesEntity(ByteBuffer buffer, ClassInfo info) {
+        final int start = buffer.position();
+        try {
+            for (int i = 0; i < info.fields.length; i++) {
+                if (CaptureQuery.isEntityField(info.fields[i], info.types[i])) {
+                    if (buffer.getInt() == this.entity.intValue()) {
+                        return true;
+                    }
+                } else {
+                    CaptureQuery.skip(buffer, info.types[i]);
+                }
+            }
+            return false;
+        } finally {
+            buffer.position(start);
+        }
+    }
+
+    private void read(File segment, PrintStream out) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(segment, "r")) {
+            final MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            if ((buffer.remaining() < CaptureFormat.HEADER_SIZE) || (buffer.getInt() != CaptureFormat.MAGIC)) {
+                System.err.println("Skipping " + segment + ", not a capture");
+                return;
+            }
+            if (buffer.getShort() != CaptureFormat.VERSION) {
+                System.err.println("Skipping " + segment + ", unknown version");
+                return;
+            }
+            buffer.getLong();
+            final List<ClassInfo> classes = new ArrayList<>();
+            while (buffer.remaining() >= 4) {
+                final int length = buffer.getInt();
+                if ((length <= 0) || (length > buffer.remaining())) {
+                    break;
+                }
+                final int next = buffer.position() + length;
+                final byte frame = buffer.get();
+                if (frame == CaptureFormat.FRAME_CLASS) {
+                    buffer.getShort();
+                    final String name = CaptureFormat.getString(buffer);
+                    CaptureFormat.getString(buffer);
+                    final int fieldCount = buffer.getShort();
+                    final String[] fields = new String[fieldCount];
+                    final byte[] types = new byte[fieldCount];
+                    for (int i = 0; i < fieldCount; i++) {
+                        fields[i] = CaptureFormat.getString(buffer);
+                        types[i] = buffer.get();
+                    }
+                    classes.add(new ClassInfo(name, fields, types));
+                } else if (frame == CaptureFormat.FRAME_PACKET) {
+                    this.readPacket(buffer, classes, out);
+                }
+                buffer.position(next);
+            }
+        }
+    }
+
+    private void readPacket(ByteBuffer buffer, List<ClassInfo> classes, PrintStream out) {
+        final long time = buffer.getLong();
+        if ((time < this.from) || (time > this.to)) {
+            return;
+        }
+        final long tick = buffer.getLong();
+        final long most = buffer.getLong();
+        final long least = buffer.getLong();
+        if ((this.player != null) && ((most != this.player.getMostSignificantBits()) || (least != this.player.getLeastSignificantBits()))) {
+            return;
+        }
+        final int id = buffer.getShort();
+        if (id >= classes.size()) {
+            return;
+        }
+        final ClassInfo info = classes.get(id);
+        if (!this.types.isEmpty() && !this.types.contains(info.name.toUpperCase())) {
+            return;
+        }
+        if ((this.entity != null) && (!info.hasEntity || !this.matchesEntity(buffer, info))) {
+            return;
+        }
+        if (this.count) {
+            long[] count = this.counts.get(info.name);
+            if (count == null) {
+                count = new long[1];
+                this.counts.put(info.name, count);
+            }
+            count[0]++;
+            return;
+        }
+        this.builder.setLength(0);
+        this.builder.append(time).append(" tick ").append(tick).append(' ').append(new UUID(most, least)).append(' ');
+        this.builder.append(info.name).append('{');
+        final int start = this.builder.length();
+        for (int i = 0; i < info.fields.length; i++) {
+            if (info.types[i] == CaptureFormat.TYPE_DECODED) {
+                final String items = CaptureFormat.getString(buffer);
+                if (!items.isEmpty()) {
+                    this.builder.append(items).append(", ");
+                }
+                continue;
+            }
+            this.builder.append('"').append(info.fields[i]).append("\": \"");
+            this.append(buffer, info.types[i]);
+            this.builder.append("\", ");
+        }
+        if (this.builder.length() > start) {
+            this.builder.setLength(this.builder.length() - 2);
+        }
+        this.builder.append('}');
+        out.println(this.builder);
+    }
+
+    private static void skip(ByteBuffer buffer, byte type) {
+        switch (type) {
+            case CaptureFormat.TYPE_BOOLEAN:
+            case CaptureFormat.TYPE_BYTE:
+                buffer.position(buffer.position() + 1);
+                break;
+            case CaptureFormat.TYPE_CHAR:
+            case CaptureFormat.TYPE_SHORT:
+                buffer.position(buffer.position() + 2);
+                break;
+            case CaptureFormat.TYPE_FLOAT:
+            case CaptureFormat.TYPE_INT:
+                buffer.position(buffer.position() + 4);
+                break;
+            case CaptureFormat.TYPE_DOUBLE:
+            case CaptureFormat.TYPE_LONG:
+                buffer.position(buffer.position() + 8);
+                break;
+            default:
+                buffer.position(buffer.position() + (buffer.getShort() & 0xFFFF));
+        }
+    }
+}
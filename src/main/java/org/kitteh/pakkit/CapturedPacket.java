@@ -0,0 +1,79 @@
+/*
+ * Copyright 2012-2013 Matt Baxter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitteh.pakkit;
+
+import org.bukkit.entity.Player;
+
+/*
+ * What the Netty thread hands over to the pipeline. Packets aren't touched
+ * again once they've been written, so holding the reference is our snapshot.
+ */
+final class CapturedPacket {
+    private final Player player;
+    private final PakkitPacket pakkitPacket;
+    private final Object packet;
+    private final long time;
+    // Server tick it was captured on, see TickCounter
+    private final long tick;
+    // Which plan fields to show, see DeltaStore. Set by the pipeline.
+    private long changed = DeltaStore.ALL;
+    // The same against the PacketRegistry mapping, which the chat line uses
+    private long registryChanged = DeltaStore.ALL;
+
+    CapturedPacket(Player player, PakkitPacket pakkitPacket, Object packet, long time, long tick) {
+        this.player = player;
+        this.pakkitPacket = pakkitPacket;
+        this.packet = packet;
+        this.time = time;
+        this.tick = tick;
+    }
+
+    long getChanged() {
+        return this.changed;
+    }
+
+    Object getPacket() {
+        return this.packet;
+    }
+
+    PakkitPacket getPakkitPacket() {
+        return this.pakkitPacket;
+    }
+
+    long getRegistryChanged() {
+        return this.registryChanged;
+    }
+
+    Player getPlayer() {
+        return this.player;
+    }
+
+    long getTick() {
+        return this.tick;
+    }
+
+    long getTime() {
+        return this.time;
+    }
+
+    void setChanged(long changed) {
+        this.changed = changed;
+    }
+
+    void setRegistryChanged(long registryChanged) {
+        this.registryChanged = registryChanged;
+    }
+}
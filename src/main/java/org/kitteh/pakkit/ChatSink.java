@@ -0,0 +1,85 @@
+/*
+ * Copyright 2012-2013 Matt Baxter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitteh.pakkit;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.bukkit.command.CommandSender;
+
+/*
+ * One chat line per packet, to whoever is watching the player it was for.
+ */
+final class ChatSink extends PacketSink {
+    static final String NAME = "chat";
+
+    private final Pakkit pakkit;
+    private final Subscriptions subscriptions;
+    private final Map<CommandSender, List<String>> output = new LinkedHashMap<>();
+    // Reused for every line
+    private final StringBuilder line = new StringBuilder(256);
+
+    ChatSink(Pakkit pakkit, Subscriptions subscriptions) {
+        super(ChatSink.NAME);
+        this.pakkit = pakkit;
+        this.subscriptions = subscriptions;
+    }
+
+    @Override
+    void flush() {
+        try {
+            for (final Map.Entry<CommandSender, List<String>> entry : this.output.entrySet()) {
+                final List<String> lines = entry.getValue();
+                entry.getKey().sendMessage(lines.toArray(new String[lines.size()]));
+            }
+        } finally {
+            this.output.clear();
+        }
+    }
+
+    @Override
+    boolean wants(UUID target, PakkitPacket pak) {
+        return this.subscriptions.isWatched(target, pak);
+    }
+
+    @Override
+    void write(CapturedPacket captured) {
+        String formatted = null;
+        for (final Subscriptions.Subscription subscription : this.subscriptions.get(captured.getPlayer().getUniqueId())) {
+            if (!subscription.wants(captured.getPakkitPacket())) {
+                continue;
+            }
+            if (formatted == null) {
+                this.line.setLength(0);
+                this.line.append(captured.getPlayer().getName()).append(": ");
+                final int start = this.line.length();
+                if (!this.pakkit.format(captured, this.line) || (this.line.length() == start)) {
+                    return;
+                }
+                formatted = this.line.toString();
+            }
+            List<String> lines = this.output.get(subscription.getSubscriber());
+            if (lines == null) {
+                lines = new ArrayList<>();
+                this.output.put(subscription.getSubscriber(), lines);
+            }
+            lines.add(formatted);
+        }
+    }
+}
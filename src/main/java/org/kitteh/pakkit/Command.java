@@ -15,18 +15,25 @@
  */
 package org.kitteh.pakkit;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 
 import org.bukkit.command.CommandSender;
 import org.bukkit.command.TabExecutor;
+import org.bukkit.entity.Player;
 
 import com.google.common.collect.ImmutableList;
 
@@ -56,6 +63,8 @@ final class Command implements TabExecutor {
     }
 
     private static final List<String> OPTIONS;
+    private static final List<String> DIRECTION_OPTIONS = ImmutableList.of("in", "out");
+    private static final List<String> RECORD_OPTIONS = ImmutableList.of("start", "status", "stop");
     private static final Map<String, Method> METHODS = new HashMap<>();
     private static final String opt;
 
@@ -111,7 +120,22 @@ final class Command implements TabExecutor {
             case 1:
                 return this.match(Command.OPTIONS, args[0]);
             case 2:
-                return this.match(this.pakkit.getPacketNames(), args[1]);
+                if (args[0].equalsIgnoreCase("record")) {
+                    return this.match(Command.RECORD_OPTIONS, args[1]);
+                }
+                if (args[0].equalsIgnoreCase("direction")) {
+                    return this.match(Command.DIRECTION_OPTIONS, args[1]);
+                }
+                if (args[0].equalsIgnoreCase("watch") || args[0].equalsIgnoreCase("unwatch") || args[0].equalsIgnoreCase("ticks")) {
+                    // Bukkit fills in player names
+                    return null;
+                }
+                if (args[0].equalsIgnoreCase("sink") && "default".startsWith(args[1].toLowerCase())) {
+                    final List<String> options = new ArrayList<>(this.pakkit.getPacketNames(args[1]));
+                    options.add(0, "default");
+                    return options;
+                }
+                return this.pakkit.getPacketNames(args[1]);
             default:
                 return null;
         }
@@ -142,7 +166,7 @@ final class Command implements TabExecutor {
             return;
         }
         packet.setEnabled(false);
-        this.pakkit.save();
+        this.pakkit.save(packet);
         sender.sendMessage("Disabled " + args.get(0));
     }
 
@@ -158,10 +182,35 @@ final class Command implements TabExecutor {
             return;
         }
         packet.setEnabled(true);
-        this.pakkit.save();
+        this.pakkit.save(packet);
         sender.sendMessage("Enabled " + args.get(0));
     }
 
+    @SubCommand(arg = "delta")
+    void delta(CommandSender sender, Args args) {
+        if (args.length() < 2) {
+            sender.sendMessage("Need the packet name and true or false");
+            return;
+        }
+        boolean delta;
+        if (args.get(1).equalsIgnoreCase("true")) {
+            delta = true;
+        } else if (args.get(1).equalsIgnoreCase("false")) {
+            delta = false;
+        } else {
+            sender.sendMessage("Must be true or false not " + args.get(1));
+            return;
+        }
+        final PakkitPacket packet = this.pakkit.getPacket(args.get(0));
+        if (packet == null) {
+            sender.sendMessage("Invalid packet " + args.get(0));
+            return;
+        }
+        packet.setDelta(delta);
+        this.pakkit.save(packet);
+        sender.sendMessage("Set delta on " + args.get(0) + " to " + delta);
+    }
+
     @SubCommand(arg = "full")
     void full(CommandSender sender, Args args) {
         if (args.length() < 2) {
@@ -183,7 +232,7 @@ final class Command implements TabExecutor {
             return;
         }
         packet.setFull(full);
-        this.pakkit.save();
+        this.pakkit.save(packet);
         sender.sendMessage("Set full on " + args.get(0) + " to " + full);
     }
 
@@ -199,7 +248,509 @@ final class Command implements TabExecutor {
             return;
         }
         final String old = packet.map(args.get(1), args.get(2));
-        this.pakkit.save();
+        this.pakkit.save(packet);
         sender.sendMessage("Mapped " + args.get(1) + " to " + args.get(2) + (old == null ? "." : "(was " + old + ")."));
     }
+
+    @SubCommand(arg = "record")
+    void record(CommandSender sender, Args args) {
+        if (args.length() < 1) {
+            sender.sendMessage("record start|status|stop");
+            return;
+        }
+        try {
+            if (args.get(0).equalsIgnoreCase("start")) {
+                final File directory = this.pakkit.startRecording();
+                sender.sendMessage(directory == null ? "Already recording" : "Recording to " + directory);
+            } else if (args.get(0).equalsIgnoreCase("status")) {
+                final PacketRecorder recorder = this.pakkit.getRecorder();
+                sender.sendMessage(recorder == null ? "Not recording" : "Recording to " + recorder.getDirectory() + Command.oversized(recorder));
+            } else if (args.get(0).equalsIgnoreCase("stop")) {
+                final PacketRecorder recorder = this.pakkit.getRecorder();
+                final File directory = this.pakkit.stopRecording();
+                sender.sendMessage(directory == null ? "Not recording" : "Stopped recording to " + directory + Command.oversized(recorder));
+            } else {
+                sender.sendMessage("record start|status|stop");
+            }
+        } catch (final IOException e) {
+            sender.sendMessage("Could not " + args.get(0) + " recording: " + e.getMessage());
+        }
+    }
+
+    private static String oversized(PacketRecorder recorder) {
+        final int oversized = recorder == null ? 0 : recorder.getOversized();
+        return oversized == 0 ? "" : ", skipped " + oversized + " packets too large for a segment";
+    }
+
+    @SubCommand(arg = "direction")
+    void direction(CommandSender sender, Args args) {
+        if (args.length() < 2) {
+            sender.sendMessage("direction in|out true|false");
+            return;
+        }
+        PakkitPacket.Direction direction;
+        if (args.get(0).equalsIgnoreCase("in")) {
+            direction = PakkitPacket.Direction.INBOUND;
+        } else if (args.get(0).equalsIgnoreCase("out")) {
+            direction = PakkitPacket.Direction.OUTBOUND;
+        } else {
+            sender.sendMessage("Must be in or out not " + args.get(0));
+            return;
+        }
+        boolean enabled;
+        if (args.get(1).equalsIgnoreCase("true")) {
+            enabled = true;
+        } else if (args.get(1).equalsIgnoreCase("false")) {
+            enabled = false;
+        } else {
+            sender.sendMessage("Must be true or false not " + args.get(1));
+            return;
+        }
+        this.pakkit.setEnabled(direction, enabled);
+        this.pakkit.save();
+        sender.sendMessage("Set " + direction.name().toLowerCase() + " to " + enabled);
+    }
+
+    @SubCommand(arg = "stats")
+    void stats(CommandSender sender, Args args) {
+        final PacketStats stats = this.pakkit.getStats();
+        if ((args.length() > 0) && (args.get(0).equalsIgnoreCase("on") || args.get(0).equalsIgnoreCase("off"))) {
+            stats.setEnabled(args.get(0).equalsIgnoreCase("on"));
+            this.pakkit.save();
+            sender.sendMessage("Stats " + args.get(0).toLowerCase());
+            return;
+        }
+        if (!stats.isEnabled()) {
+            sender.sendMessage("Stats are off, turn them on with stats on");
+            return;
+        }
+        if (args.length() > 0) {
+            final Player target = sender.getServer().getPlayerExact(args.get(0));
+            final PacketCounter counter = target == null ? null : stats.getPlayers().get(target.getUniqueId());
+            if (counter == null) {
+                sender.sendMessage("No stats for " + args.get(0));
+                return;
+            }
+            sender.sendMessage("1s/10s/60s " + this.rates(target.getName(), counter));
+            return;
+        }
+        final List<PakkitPacket> packets = new ArrayList<>();
+        for (final PakkitPacket packet : this.pakkit.getPackets()) {
+            if (packet.getCounter().getPackets() > 0) {
+                packets.add(packet);
+            }
+        }
+        Collections.sort(packets, new Comparator<PakkitPacket>() {
+            @Override
+            public int compare(PakkitPacket a, PakkitPacket b) {
+                return Double.compare(b.getCounter().getPacketRate(10), a.getCounter().getPacketRate(10));
+            }
+        });
+        sender.sendMessage("Top packets by 10s rate, 1s/10s/60s:");
+        for (int i = 0; i < Math.min(10, packets.size()); i++) {
+            final PakkitPacket packet = packets.get(i);
+            sender.sendMessage(this.rates(Pakkit.getName(packet.getPacketClass()), packet.getCounter()));
+        }
+    }
+
+    private String rates(String name, PacketCounter counter) {
+        // Only estimates unless wire sizes are on
+        return String.format("%s: %.1f/%.1f/%.1f pkt/s, %s%.0f/%.0f/%.0f B/s", name, counter.getPacketRate(1), counter.getPacketRate(10), counter.getPacketRate(60), this.pakkit.isWire() ? "" : "~", counter.getByteRate(1), counter.getByteRate(10), counter.getByteRate(60));
+    }
+
+    @SubCommand(arg = "latency")
+    void latency(CommandSender sender, Args args) {
+        if ((args.length() > 0) && (args.get(0).equalsIgnoreCase("on") || args.get(0).equalsIgnoreCase("off"))) {
+            this.pakkit.setLatency(args.get(0).equalsIgnoreCase("on"));
+            this.pakkit.save();
+            sender.sendMessage("Latency tracing " + args.get(0).toLowerCase());
+            return;
+        }
+        if ((args.length() > 0) && args.get(0).equalsIgnoreCase("reset")) {
+            for (final PakkitPacket packet : this.pakkit.getPackets()) {
+                if (packet.getLatency() != null) {
+                    packet.getLatency().reset();
+                }
+            }
+            sender.sendMessage("Latency reset");
+            return;
+        }
+        if (!this.pakkit.isLatency()) {
+            sender.sendMessage("Latency tracing is off, turn it on with latency on");
+            return;
+        }
+        if (args.length() > 0) {
+            final PakkitPacket packet = this.pakkit.getPacket(args.get(0));
+            if (packet == null) {
+                sender.sendMessage("Invalid packet " + args.get(0));
+                return;
+            }
+            final LatencyHistogram latency = packet.getLatency();
+            if ((latency == null) || (latency.getCount() == 0)) {
+                sender.sendMessage("No writes traced for " + Pakkit.getName(packet.getPacketClass()));
+                return;
+            }
+            sender.sendMessage(String.format("%s: %d writes, %d failed, write to flushed in ms:", Pakkit.getName(packet.getPacketClass()), latency.getCount(), latency.getFailed()));
+            if (this.pakkit.getLatencySample() > 1) {
+                sender.sendMessage("Tracing one in " + this.pakkit.getLatencySample() + " writes");
+            }
+            for (final String percentile : new String[] { "50", "90", "99", "99.9" }) {
+                sender.sendMessage("p" + percentile + ": " + Command.millis(latency.getPercentile(Double.parseDouble(percentile))));
+            }
+            sender.sendMessage("max: " + Command.millis(latency.getMax()));
+            return;
+        }
+        final List<PakkitPacket> packets = new ArrayList<>();
+        final Map<PakkitPacket, Long> p99 = new HashMap<>();
+        for (final PakkitPacket packet : this.pakkit.getPackets()) {
+            if ((packet.getLatency() != null) && (packet.getLatency().getCount() > 0)) {
+                packets.add(packet);
+                p99.put(packet, packet.getLatency().getPercentile(99));
+            }
+        }
+        Collections.sort(packets, new Comparator<PakkitPacket>() {
+            @Override
+            public int compare(PakkitPacket a, PakkitPacket b) {
+                return Long.compare(p99.get(b), p99.get(a));
+            }
+        });
+        sender.sendMessage("Slowest packets by p99, write to flushed in ms, p50/p99/max:");
+        for (int i = 0; i < Math.min(10, packets.size()); i++) {
+            final LatencyHistogram latency = packets.get(i).getLatency();
+            sender.sendMessage(String.format("%s: %s/%s/%s, %d writes", Pakkit.getName(packets.get(i).getPacketClass()), Command.millis(latency.getPercentile(50)), Command.millis(p99.get(packets.get(i))), Command.millis(latency.getMax()), latency.getCount()));
+        }
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.2f", nanos / 1000000D);
+    }
+
+    @SubCommand(arg = "ticks")
+    void ticks(CommandSender sender, Args args) {
+        final PacketStats stats = this.pakkit.getStats();
+        if (!stats.isEnabled()) {
+            sender.sendMessage("Stats are off, turn them on with stats on");
+            return;
+        }
+        if (args.length() < 1) {
+            sender.sendMessage("ticks PlayerName [count]");
+            return;
+        }
+        int count = 5;
+        if (args.length() > 1) {
+            try {
+                count = Math.max(1, Integer.parseInt(args.get(1)));
+            } catch (final NumberFormatException e) {
+                sender.sendMessage("Not a number: " + args.get(1));
+                return;
+            }
+        }
+        final Player target = sender.getServer().getPlayerExact(args.get(0));
+        final TickHistory history = target == null ? null : stats.getTickHistories().get(target.getUniqueId());
+        if (history == null) {
+            sender.sendMessage("No ticks for " + args.get(0));
+            return;
+        }
+        final long now = this.pakkit.getTick();
+        final List<TickHistory.Tick> ticks = history.getBurstiest(now, count);
+        if (ticks.isEmpty()) {
+            sender.sendMessage("Nothing sent to " + target.getName() + " lately");
+            return;
+        }
+        final Map<Integer, String> names = new HashMap<>();
+        for (final PakkitPacket packet : this.pakkit.getPackets()) {
+            names.put(packet.getId(), Pakkit.getName(packet.getPacketClass()));
+        }
+        sender.sendMessage("Busiest recent ticks for " + target.getName() + ", by packets:");
+        for (final TickHistory.Tick tick : ticks) {
+            final StringBuilder line = new StringBuilder();
+            line.append("tick ").append(tick.getTick()).append(" (").append(tick.getTick() - now).append("): ");
+            line.append(tick.getPackets()).append(" packets, ").append(this.pakkit.isWire() ? "" : "~").append(tick.getBytes()).append(" B -");
+            for (int i = 0; i < tick.getTypeIds().length; i++) {
+                line.append(' ').append(names.get(tick.getTypeIds()[i])).append(" x").append(tick.getTypeCounts()[i]).append(',');
+            }
+            if (tick.getOther() > 0) {
+                line.append(" other x").append(tick.getOther()).append(',');
+            }
+            line.setLength(line.length() - 1);
+            sender.sendMessage(line.toString());
+        }
+    }
+
+    @SubCommand(arg = "top")
+    void top(CommandSender sender, Args args) {
+        final PacketStats stats = this.pakkit.getStats();
+        if (!stats.isEnabled()) {
+            sender.sendMessage("Stats are off, turn them on with stats on");
+            return;
+        }
+        int count = 5;
+        if (args.length() > 0) {
+            try {
+                count = Math.max(1, Integer.parseInt(args.get(0)));
+            } catch (final NumberFormatException e) {
+                sender.sendMessage("Not a number: " + args.get(0));
+                return;
+            }
+        }
+        final double elapsed = stats.getTopPackets().getElapsed();
+        if ((stats.getTopPackets().getSpan() == 0) || (elapsed <= 0)) {
+            sender.sendMessage("Nothing counted yet, give it a second");
+            return;
+        }
+        final Map<UUID, String> names = new HashMap<>();
+        for (final Player player : sender.getServer().getOnlinePlayers()) {
+            names.put(player.getUniqueId(), player.getName());
+        }
+        final String bytes = this.pakkit.isWire() ? "B/s" : "~B/s";
+        sender.sendMessage(String.format("Top players over the last %.0fs, by pkt/s:", elapsed));
+        this.top(sender, names, stats.getTopPackets().top(count), elapsed, "pkt/s");
+        sender.sendMessage("By " + bytes + ":");
+        this.top(sender, names, stats.getTopBytes().top(count), elapsed, bytes);
+        final List<PakkitPacket> packets = new ArrayList<>();
+        for (final PakkitPacket packet : this.pakkit.getPackets()) {
+            if (packet.getCounter().getPackets() > 0) {
+                packets.add(packet);
+            }
+        }
+        Collections.sort(packets, new Comparator<PakkitPacket>() {
+            @Override
+            public int compare(PakkitPacket a, PakkitPacket b) {
+                return Double.compare(b.getCounter().getByteRate(10), a.getCounter().getByteRate(10));
+            }
+        });
+        sender.sendMessage("Top packets over the last 10s, by " + bytes + ":");
+        for (int i = 0; i < Math.min(count, packets.size()); i++) {
+            final PacketCounter counter = packets.get(i).getCounter();
+            sender.sendMessage(String.format("%s: %.0f %s, %.1f pkt/s", Pakkit.getName(packets.get(i).getPacketClass()), counter.getByteRate(10), bytes, counter.getPacketRate(10)));
+        }
+    }
+
+    private void top(CommandSender sender, Map<UUID, String> names, List<HeavyHitters.Hit<UUID>> hits, double elapsed, String unit) {
+        for (final HeavyHitters.Hit<UUID> hit : hits) {
+            final String name = names.get(hit.getKey());
+            // Space-Saving can overcount by the error, say so when it has
+            final String error = hit.getError() > 0 ? String.format(" (+-%.1f)", hit.getError() / elapsed) : "";
+            sender.sendMessage(String.format("%s: %.1f %s%s", name == null ? hit.getKey().toString() : name, hit.getCount() / elapsed, unit, error));
+        }
+    }
+
+    @SubCommand(arg = "wire")
+    void wire(CommandSender sender, Args args) {
+        if ((args.length() > 0) && (args.get(0).equalsIgnoreCase("on") || args.get(0).equalsIgnoreCase("off"))) {
+            this.pakkit.setWire(args.get(0).equalsIgnoreCase("on"));
+            this.pakkit.save();
+            sender.sendMessage("Wire sizes " + args.get(0).toLowerCase());
+            return;
+        }
+        if (!this.pakkit.isWire()) {
+            sender.sendMessage("Wire sizes are off, turn them on with wire on");
+            return;
+        }
+        final List<WireCounts> counts = new ArrayList<>();
+        String who = "everyone";
+        if (args.length() > 0) {
+            final Player target = sender.getServer().getPlayerExact(args.get(0));
+            final WireCounts playerCounts = target == null ? null : this.pakkit.getWireCounts().get(target.getUniqueId());
+            if (playerCounts == null) {
+                sender.sendMessage("No wire sizes for " + args.get(0));
+                return;
+            }
+            counts.add(playerCounts);
+            who = target.getName();
+        } else {
+            counts.addAll(this.pakkit.getWireCounts().values());
+        }
+        final List<PakkitPacket> packets = new ArrayList<>();
+        final Map<PakkitPacket, long[]> totals = new HashMap<>();
+        for (final PakkitPacket packet : this.pakkit.getPackets()) {
+            final long[] total = new long[2];
+            for (final WireCounts count : counts) {
+                total[0] += count.getPackets(packet.getId());
+                total[1] += count.getBytes(packet.getId());
+            }
+            if (total[0] > 0) {
+                packets.add(packet);
+                totals.put(packet, total);
+            }
+        }
+        Collections.sort(packets, new Comparator<PakkitPacket>() {
+            @Override
+            public int compare(PakkitPacket a, PakkitPacket b) {
+                return Long.compare(totals.get(b)[1], totals.get(a)[1]);
+            }
+        });
+        sender.sendMessage("Top packets on the wire for " + who + ", by bytes:");
+        for (int i = 0; i < Math.min(10, packets.size()); i++) {
+            final long[] total = totals.get(packets.get(i));
+            sender.sendMessage(String.format("%s: %d packets, %d B, %.1f B/pkt", Pakkit.getName(packets.get(i).getPacketClass()), total[0], total[1], total[1] / (double) total[0]));
+        }
+    }
+
+    @SubCommand(arg = "sample")
+    void sample(CommandSender sender, Args args) {
+        if (args.length() < 2) {
+            sender.sendMessage("sample PacketName " + PacketSampler.USAGE);
+            return;
+        }
+        final PakkitPacket packet = this.pakkit.getPacket(args.get(0));
+        if (packet == null) {
+            sender.sendMessage("Invalid packet " + args.get(0));
+            return;
+        }
+        final PacketSampler sampler = PacketSampler.parse(args.get(1), args.get(2));
+        if (sampler == null) {
+            sender.sendMessage("sample PacketName " + PacketSampler.USAGE);
+            return;
+        }
+        packet.setSampler(sampler);
+        this.pakkit.save(packet);
+        sender.sendMessage("Sampling " + args.get(0) + ": " + sampler.describe());
+    }
+
+    @SubCommand(arg = "sink")
+    void sink(CommandSender sender, Args args) {
+        if (args.length() < 2) {
+            for (final PacketSink sink : this.pakkit.getSinks()) {
+                sender.sendMessage(sink.describe());
+            }
+            sender.sendMessage("Default sinks: " + Pakkit.getSinkNames(this.pakkit.getDefaultSinks()));
+            sender.sendMessage("sink default|PacketName sink,sink|none|default");
+            sender.sendMessage("File sinks write to a file or fifo, set in config. No Unix sockets.");
+            return;
+        }
+        final boolean defaults = args.get(1).equalsIgnoreCase("default");
+        final PacketSink[] sinks = defaults ? null : this.pakkit.getSinks(Arrays.asList(args.get(1).split(",")));
+        if ((sinks == null) && !defaults) {
+            sender.sendMessage("Unknown sink in " + args.get(1));
+            return;
+        }
+        if (args.get(0).equalsIgnoreCase("default")) {
+            if (sinks == null) {
+                sender.sendMessage("Need actual sinks for the default");
+                return;
+            }
+            this.pakkit.setDefaultSinks(sinks);
+            this.pakkit.save();
+            sender.sendMessage("Default sinks now " + Pakkit.getSinkNames(sinks));
+            return;
+        }
+        final PakkitPacket packet = this.pakkit.getPacket(args.get(0));
+        if (packet == null) {
+            sender.sendMessage("Invalid packet " + args.get(0));
+            return;
+        }
+        packet.setSinks(sinks);
+        this.pakkit.save(packet);
+        sender.sendMessage(args.get(0) + " now goes to " + (sinks == null ? "the default sinks" : Pakkit.getSinkNames(sinks)));
+    }
+
+    @SubCommand(arg = "track")
+    void track(CommandSender sender, Args args) {
+        if (args.length() < 1) {
+            final int[] tracked = PacketRegistry.getTracked();
+            sender.sendMessage(tracked.length == 0 ? "Not tracking, every entity is shown" : "Tracking " + Arrays.toString(tracked) + (PacketRegistry.isNoEntityShown() ? ", plus packets without an entity" : ", packets without an entity hidden"));
+            sender.sendMessage("track EntityID|Player, or track noentity on|off to show packets without an entity while tracking");
+            return;
+        }
+        if (args.get(0).equalsIgnoreCase("noentity")) {
+            if ((args.length() < 2) || !(args.get(1).equalsIgnoreCase("on") || args.get(1).equalsIgnoreCase("off"))) {
+                sender.sendMessage("track noentity on|off");
+                return;
+            }
+            PacketRegistry.setNoEntityShown(args.get(1).equalsIgnoreCase("on"));
+            sender.sendMessage("Packets without an entity " + (PacketRegistry.isNoEntityShown() ? "shown" : "hidden") + " while tracking");
+            return;
+        }
+        final Integer id = this.entityId(sender, args.get(0));
+        if (id == null) {
+            return;
+        }
+        PacketRegistry.track(id);
+        sender.sendMessage("Tracking entity " + id);
+    }
+
+    @SubCommand(arg = "untrack")
+    void untrack(CommandSender sender, Args args) {
+        if (args.length() < 1) {
+            sender.sendMessage("untrack EntityID|Player|all");
+            return;
+        }
+        if (args.get(0).equalsIgnoreCase("all")) {
+            PacketRegistry.untrackAll();
+            sender.sendMessage("No longer tracking anything");
+            return;
+        }
+        final Integer id = this.entityId(sender, args.get(0));
+        if (id == null) {
+            return;
+        }
+        sender.sendMessage(PacketRegistry.untrack(id) ? "No longer tracking entity " + id : "Wasn't tracking entity " + id);
+    }
+
+    @SubCommand(arg = "watch")
+    void watch(CommandSender sender, Args args) {
+        final Subscriptions subscriptions = this.pakkit.getSubscriptions();
+        if (args.length() < 1) {
+            final List<Subscriptions.Subscription> watching = subscriptions.getSubscriptions(sender);
+            if (watching.isEmpty()) {
+                sender.sendMessage("Not watching anyone, watch Player [PacketName,PacketName]");
+                return;
+            }
+            final StringBuilder builder = new StringBuilder("Watching ");
+            for (final Subscriptions.Subscription subscription : watching) {
+                builder.append(subscription.getTargetName()).append(", ");
+            }
+            builder.setLength(builder.length() - 2);
+            sender.sendMessage(builder.toString());
+            return;
+        }
+        final Player target = sender.getServer().getPlayerExact(args.get(0));
+        if (target == null) {
+            sender.sendMessage("No player " + args.get(0));
+            return;
+        }
+        BitSet types = null;
+        if ((args.length() > 1) && !args.get(1).equalsIgnoreCase("all")) {
+            types = new BitSet();
+            for (final String name : args.get(1).split(",")) {
+                final PakkitPacket packet = this.pakkit.getPacket(name);
+                if (packet == null) {
+                    sender.sendMessage("Invalid packet " + name);
+                    return;
+                }
+                types.set(packet.getId());
+            }
+        }
+        subscriptions.subscribe(new Subscriptions.Subscription(sender, target.getUniqueId(), target.getName(), types));
+        sender.sendMessage("Watching " + (types == null ? "all enabled packets" : args.get(1)) + " for " + target.getName());
+    }
+
+    @SubCommand(arg = "unwatch")
+    void unwatch(CommandSender sender, Args args) {
+        final Subscriptions subscriptions = this.pakkit.getSubscriptions();
+        if ((args.length() < 1) || args.get(0).equalsIgnoreCase("all")) {
+            sender.sendMessage("Stopped watching " + subscriptions.unsubscribeAll(sender) + " players");
+            return;
+        }
+        final Player target = sender.getServer().getPlayerExact(args.get(0));
+        if ((target == null) || !subscriptions.unsubscribe(sender, target.getUniqueId())) {
+            sender.sendMessage("Weren't watching " + args.get(0));
+            return;
+        }
+        sender.sendMessage("Stopped watching " + target.getName());
+    }
+
+    private Integer entityId(CommandSender sender, String arg) {
+        try {
+            return Integer.valueOf(arg);
+        } catch (final NumberFormatException e) {
+            final Player player = sender.getServer().getPlayerExact(arg);
+            if (player == null) {
+                sender.sendMessage("Not an entity id or online player: " + arg);
+                return null;
+            }
+            return player.getEntityId();
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2012-2013 Matt Baxter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitteh.pakkit;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+ * Copy-on-write sorted int array. Reads are a volatile read and a binary
+ * search, no locks and no boxing. Writes are rare (commands) and just CAS a
+ * new array in.
+ */
+final class ConcurrentIntSet {
+    private static final int[] EMPTY = new int[0];
+
+    private final AtomicReference<int[]> values = new AtomicReference<>(ConcurrentIntSet.EMPTY);
+
+    boolean add(int value) {
+        while (true) {
+            final int[] current = this.values.get();
+            final int index = Arrays.binarySearch(current, value);
+            if (index >= 0) {
+                return false;
+            }
+            final int insert = -(index + 1);
+            final int[] updated = new int[current.length + 1];
+            System.arraycopy(current, 0, updated, 0, insert);
+            updated[insert] = value;
+            System.arraycopy(current, insert, updated, insert + 1, current.length - insert);
+            if (this.values.compareAndSet(current, updated)) {
+                return true;
+            }
+        }
+    }
+
+    void clear() {
+        this.values.set(ConcurrentIntSet.EMPTY);
+    }
+
+    boolean contains(int value) {
+        return Arrays.binarySearch(this.values.get(), value) >= 0;
+    }
+
+    boolean isEmpty() {
+        return this.values.get().length == 0;
+    }
+
+    boolean remove(int value) {
+        while (true) {
+            final int[] current = this.values.get();
+            final int index = Arrays.binarySearch(current, value);
+            if (index < 0) {
+                return false;
+            }
+            final int[] updated = current.length == 1 ? ConcurrentIntSet.EMPTY : new int[current.length - 1];
+            System.arraycopy(current, 0, updated, 0, index);
+            System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+            if (this.values.compareAndSet(current, updated)) {
+                return true;
+            }
+        }
+    }
+
+    int[] toArray() {
+        return this.values.get().clone();
+    }
+}
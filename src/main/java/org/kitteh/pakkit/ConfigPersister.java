@@ -0,0 +1,173 @@
+/*
+ * Copyright 2012-2013 Matt Baxter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitteh.pakkit;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+/*
+ * Commands only mark things dirty. Once things have been quiet for a bit,
+ * or it's been too long regardless, our own thread writes the changed
+ * sections into a private copy of the config and swaps the file in with a
+ * rename. The plugin's own FileConfiguration isn't touched after startup.
+ */
+final class ConfigPersister implements Runnable {
+    private final Pakkit pakkit;
+    private final File file;
+    private final YamlConfiguration config = new YamlConfiguration();
+    private final Set<PakkitPacket> dirtyPackets = Collections.newSetFromMap(new ConcurrentHashMap<PakkitPacket, Boolean>());
+    private final ScheduledExecutorService executor;
+    private final long quiet;
+    private final long max;
+    private volatile boolean dirtySettings;
+    // Scheduling state, guarded by this. Writing is under the config's lock.
+    private long firstDirty;
+    private long lastDirty;
+    private boolean scheduled;
+
+    ConfigPersister(Pakkit pakkit, File file, String current, long quiet, long max) {
+        this.pakkit = pakkit;
+        this.file = file;
+        this.quiet = quiet;
+        this.max = max;
+        try {
+            this.config.loadFromString(current);
+        } catch (final InvalidConfigurationException e) {
+            pakkit.getLogger().log(Level.WARNING, "Could not copy the config, saving will start from scratch", e);
+        }
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "Pakkit Config");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    void markDirty() {
+        this.dirtySettings = true;
+        this.touch();
+    }
+
+    void markDirty(PakkitPacket packet) {
+        this.dirtyPackets.add(packet);
+        this.touch();
+    }
+
+    @Override
+    public void run() {
+        synchronized (this) {
+            this.scheduled = false;
+            final long now = System.currentTimeMillis();
+            final long wait = Math.min((this.lastDirty + this.quiet) - now, (this.firstDirty + this.max) - now);
+            if (wait > 0) {
+                this.schedule(wait);
+                return;
+            }
+            this.firstDirty = 0;
+        }
+        this.write();
+    }
+
+    /*
+     * Writes anything outstanding on the calling thread and stops.
+     */
+    void shutdown() {
+        this.executor.shutdownNow();
+        try {
+            this.executor.awaitTermination(2, TimeUnit.SECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.write();
+    }
+
+    // Hold the lock
+    private void schedule(long delay) {
+        if (!this.scheduled && !this.executor.isShutdown()) {
+            this.scheduled = true;
+            this.executor.schedule(this, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void touch() {
+        final long now = System.currentTimeMillis();
+        if (this.firstDirty == 0) {
+            this.firstDirty = now;
+        }
+        this.lastDirty = now;
+        this.schedule(this.quiet);
+    }
+
+    /*
+     * Anything marked dirty while this runs either makes it in or gets
+     * picked up next time around.
+     */
+    private void write() {
+        synchronized (this.config) {
+            this.writeConfig();
+        }
+    }
+
+    // Hold the config lock
+    private void writeConfig() {
+        boolean changed = false;
+        if (this.dirtySettings) {
+            this.dirtySettings = false;
+            this.pakkit.saveSettings(this.config);
+            changed = true;
+        }
+        for (final PakkitPacket packet : this.dirtyPackets) {
+            this.dirtyPackets.remove(packet);
+            packet.save(this.config.createSection(packet.getPacketClass().getSimpleName()));
+            changed = true;
+        }
+        if (!changed) {
+            return;
+        }
+        final File temp = new File(this.file.getPath() + ".tmp");
+        try {
+            this.file.getAbsoluteFile().getParentFile().mkdirs();
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                out.write(this.config.saveToString().getBytes(CaptureFormat.UTF_8));
+                out.getFD().sync();
+            }
+            try {
+                Files.move(temp.toPath(), this.file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (final AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (final IOException e) {
+            this.pakkit.getLogger().log(Level.WARNING, "Could not save " + this.file, e);
+        }
+    }
+}
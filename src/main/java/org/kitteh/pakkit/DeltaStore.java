@@ -0,0 +1,169 @@
+/*
+ * Copyright 2012-2013 Matt Baxter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitteh.pakkit;
+
+import java.util.Arrays;
+
+/*
+ * Last seen field values per (packet type, entity or player), for delta mode.
+ * Primitives are kept as raw bits in a long[] per row, only object fields
+ * need references. Open addressing on a long key, no boxing. Only the
+ * pipeline thread uses it.
+ */
+final class DeltaStore {
+    static final long ALL = -1L;
+
+    private static final class Row {
+        // The plan or registry mapping the bits are for
+        private Object source;
+        private long[] bits;
+        private Object[] objects;
+    }
+
+    /*
+     * Bit i for field i, bit 63 covers 63 and everything after it.
+     */
+    static boolean isChanged(long changed, int index) {
+        return (changed & (1L << Math.min(index, 63))) != 0;
+    }
+
+    private static int hash(long key) {
+        final long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private final int maxRows;
+    private long[] keys = new long[64];
+    private Row[] rows = new Row[64];
+    private int size = 0;
+
+    DeltaStore(int maxRows) {
+        this.maxRows = maxRows;
+    }
+
+    private static long key(PakkitPacket pak, boolean registry, int id) {
+        return ((((long) pak.getId() << 1) | (registry ? 1 : 0)) << 32) | (id & 0xFFFFFFFFL);
+    }
+
+    /*
+     * Which fields differ from last time for this key, then remembers these
+     * values. ALL the first time, or whenever the plan has changed since.
+     */
+    long changed(PakkitPacket pak, PakkitPacket.Plan plan, int id, Object packet) {
+        return this.changed(DeltaStore.key(pak, false, id), plan, plan.getAccessors(), packet);
+    }
+
+    /*
+     * The same against the registry mapping, with bits indexed as in
+     * getMapping. Kept apart from the plan's.
+     */
+    long changed(PakkitPacket pak, PacketRegistry registry, int id, Object packet) {
+        return this.changed(DeltaStore.key(pak, true, id), registry, registry.getAccessors(), packet);
+    }
+
+    private long changed(long key, Object source, FieldAccessor[] accessors, Object packet) {
+        Row row = this.get(key);
+        if (row == null) {
+            row = this.put(key);
+        }
+        final boolean fresh = row.source != source;
+        if (fresh) {
+            row.source = source;
+            row.bits = new long[accessors.length];
+            row.objects = new Object[accessors.length];
+        }
+        long changed = 0;
+        for (int i = 0; i < accessors.length; i++) {
+            final FieldAccessor accessor = accessors[i];
+            try {
+                if (accessor.getType().isPrimitive()) {
+                    final long bits = accessor.getBits(packet);
+                    if (bits != row.bits[i]) {
+                        row.bits[i] = bits;
+                        changed |= 1L << Math.min(i, 63);
+                    }
+                } else {
+                    final Object value = accessor.get(packet);
+                    if ((value == null) ? (row.objects[i] != null) : !value.equals(row.objects[i])) {
+                        row.objects[i] = value;
+                        changed |= 1L << Math.min(i, 63);
+                    }
+                }
+            } catch (final RuntimeException e) {
+                // Can't compare it, so always show it
+                changed |= 1L << Math.min(i, 63);
+            }
+        }
+        return fresh ? DeltaStore.ALL : changed;
+    }
+
+    void clear() {
+        Arrays.fill(this.rows, null);
+        this.size = 0;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    private Row get(long key) {
+        final int mask = this.keys.length - 1;
+        int slot = DeltaStore.hash(key) & mask;
+        while (this.rows[slot] != null) {
+            if (this.keys[slot] == key) {
+                return this.rows[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    private Row put(long key) {
+        // Entities come and go, rather than tracking that just start over
+        if (this.size >= this.maxRows) {
+            this.clear();
+        }
+        if ((this.size * 2) >= this.keys.length) {
+            this.grow();
+        }
+        final Row row = new Row();
+        this.insert(key, row);
+        this.size++;
+        return row;
+    }
+
+    private void grow() {
+        final long[] oldKeys = this.keys;
+        final Row[] oldRows = this.rows;
+        this.keys = new long[oldKeys.length * 2];
+        this.rows = new Row[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldRows[i] != null) {
+                this.insert(oldKeys[i], oldRows[i]);
+            }
+        }
+    }
+
+    private void insert(long key, Row row) {
+        final int mask = this.keys.length - 1;
+        int slot = DeltaStore.hash(key) & mask;
+        while (this.rows[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        this.keys[slot] = key;
+        this.rows[slot] = row;
+    }
+}
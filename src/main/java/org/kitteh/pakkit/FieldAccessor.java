@@ -0,0 +1,470 @@
+/*
+ * Copyright 2012-2013 Matt Baxter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitteh.pakkit;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+/*
+ * Field reads, bound once into a MethodHandle. Every primitive type gets its
+ * own subclass so that getInt and friends, plus append, never box. Each field
+ * then gets a generated subclass of that, see AccessorGenerator.
+ */
+abstract class FieldAccessor {
+    static class BooleanAccessor extends FieldAccessor {
+        BooleanAccessor(Field field, MethodHandle handle) {
+            super(field, handle);
+        }
+
+        @Override
+        long getBits(Object o) {
+            return this.getBoolean(o) ? 1 : 0;
+        }
+
+        @Override
+        void append(StringBuilder builder, Object o) {
+            builder.append(this.getBoolean(o));
+        }
+
+        @Override
+        Object get(Object o) {
+            return Boolean.valueOf(this.getBoolean(o));
+        }
+
+        @Override
+        boolean getBoolean(Object o) {
+            try {
+                return (boolean) this.handle.invokeExact(o);
+            } catch (final Throwable t) {
+                throw FieldAccessor.fail(this, t);
+            }
+        }
+    }
+
+    static class ByteAccessor extends FieldAccessor {
+        ByteAccessor(Field field, MethodHandle handle) {
+            super(field, handle);
+        }
+
+        @Override
+        long getBits(Object o) {
+            return this.getByte(o);
+        }
+
+        @Override
+        void append(StringBuilder builder, Object o) {
+            builder.append(this.getByte(o));
+        }
+
+        @Override
+        Object get(Object o) {
+            return Byte.valueOf(this.getByte(o));
+        }
+
+        @Override
+        byte getByte(Object o) {
+            try {
+                return (byte) this.handle.invokeExact(o);
+            } catch (final Throwable t) {
+                throw FieldAccessor.fail(this, t);
+            }
+        }
+
+        @Override
+        int getInt(Object o) {
+            return this.getByte(o);
+        }
+
+        @Override
+        long getLong(Object o) {
+            return this.getByte(o);
+        }
+    }
+
+    static class CharAccessor extends FieldAccessor {
+        CharAccessor(Field field, MethodHandle handle) {
+            super(field, handle);
+        }
+
+        @Override
+        long getBits(Object o) {
+            return this.getChar(o);
+        }
+
+        @Override
+        void append(StringBuilder builder, Object o) {
+            builder.append(this.getChar(o));
+        }
+
+        @Override
+        Object get(Object o) {
+            return Character.valueOf(this.getChar(o));
+        }
+
+        @Override
+        char getChar(Object o) {
+            try {
+                return (char) this.handle.invokeExact(o);
+            } catch (final Throwable t) {
+                throw FieldAccessor.fail(this, t);
+            }
+        }
+
+        @Override
+        int getInt(Object o) {
+            return this.getChar(o);
+        }
+
+        @Override
+        long getLong(Object o) {
+            return this.getChar(o);
+        }
+    }
+
+    static class DoubleAccessor extends FieldAccessor {
+        DoubleAccessor(Field field, MethodHandle handle) {
+            super(field, handle);
+        }
+
+        @Override
+        long getBits(Object o) {
+            return Double.doubleToRawLongBits(this.getDouble(o));
+        }
+
+        @Override
+        void append(StringBuilder builder, Object o) {
+            builder.append(this.getDouble(o));
+        }
+
+        @Override
+        Object get(Object o) {
+            return Double.valueOf(this.getDouble(o));
+        }
+
+        @Override
+        double getDouble(Object o) {
+            try {
+                return (double) this.handle.invokeExact(o);
+            } catch (final Throwable t) {
+                throw FieldAccessor.fail(this, t);
+            }
+        }
+    }
+
+    static class FloatAccessor extends FieldAccessor {
+        FloatAccessor(Field field, MethodHandle handle) {
+            super(field, handle);
+        }
+
+        @Override
+        long getBits(Object o) {
+            return Float.floatToRawIntBits(this.getFloat(o));
+        }
+
+        @Override
+        void append(StringBuilder builder, Object o) {
+            builder.append(this.getFloat(o));
+        }
+
+        @Override
+        Object get(Object o) {
+            return Float.valueOf(this.getFloat(o));
+        }
+
+        @Override
+        double getDouble(Object o) {
+            return this.getFloat(o);
+        }
+
+        @Override
+        float getFloat(Object o) {
+            try {
+                return (float) this.handle.invokeExact(o);
+            } catch (final Throwable t) {
+                throw FieldAccessor.fail(this, t);
+            }
+        }
+    }
+
+    static class IntAccessor extends FieldAccessor {
+        IntAccessor(Field field, MethodHandle handle) {
+            super(field, handle);
+        }
+
+        @Override
+        long getBits(Object o) {
+            return this.getInt(o);
+        }
+
+        @Override
+        void append(StringBuilder builder, Object o) {
+            builder.append(this.getInt(o));
+        }
+
+        @Override
+        Object get(Object o) {
+            return Integer.valueOf(this.getInt(o));
+        }
+
+        @Override
+        int getInt(Object o) {
+            try {
+                return (int) this.handle.invokeExact(o);
+            } catch (final Throwable t) {
+                throw FieldAccessor.fail(this, t);
+            }
+        }
+
+        @Override
+        long getLong(Object o) {
+            return this.getInt(o);
+        }
+    }
+
+    static class LongAccessor extends FieldAccessor {
+        LongAccessor(Field field, MethodHandle handle) {
+            super(field, handle);
+        }
+
+        @Override
+        long getBits(Object o) {
+            return this.getLong(o);
+        }
+
+        @Override
+        void append(StringBuilder builder, Object o) {
+            builder.append(this.getLong(o));
+        }
+
+        @Override
+        Object get(Object o) {
+            return Long.valueOf(this.getLong(o));
+        }
+
+        @Override
+        long getLong(Object o) {
+            try {
+                return (long) this.handle.invokeExact(o);
+            } catch (final Throwable t) {
+                throw FieldAccessor.fail(this, t);
+            }
+        }
+    }
+
+    static class ObjectAccessor extends FieldAccessor {
+        ObjectAccessor(Field field, MethodHandle handle) {
+            super(field, handle);
+        }
+
+        @Override
+        void append(StringBuilder builder, Object o) {
+            builder.append(this.get(o));
+        }
+
+        @Override
+        Object get(Object o) {
+            try {
+                return this.handle.invokeExact(o);
+            } catch (final Throwable t) {
+                throw FieldAccessor.fail(this, t);
+            }
+        }
+    }
+
+    static class ShortAccessor extends FieldAccessor {
+        ShortAccessor(Field field, MethodHandle handle) {
+            super(field, handle);
+        }
+
+        @Override
+        long getBits(Object o) {
+            return this.getShort(o);
+        }
+
+        @Override
+        void append(StringBuilder builder, Object o) {
+            builder.append(this.getShort(o));
+        }
+
+        @Override
+        Object get(Object o) {
+            return Short.valueOf(this.getShort(o));
+        }
+
+        @Override
+        int getInt(Object o) {
+            return this.getShort(o);
+        }
+
+        @Override
+        long getLong(Object o) {
+            return this.getShort(o);
+        }
+
+        @Override
+        short getShort(Object o) {
+            try {
+                return (short) this.handle.invokeExact(o);
+            } catch (final Throwable t) {
+                throw FieldAccessor.fail(this, t);
+            }
+        }
+    }
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    static FieldAccessor of(Field field) {
+        field.setAccessible(true);
+        MethodHandle handle;
+        try {
+            handle = FieldAccessor.LOOKUP.unreflectGetter(field);
+        } catch (final IllegalAccessException e) {
+            throw new IllegalArgumentException("Cannot read field " + field, e);
+        }
+        if (Modifier.isStatic(field.getModifiers())) {
+            handle = MethodHandles.dropArguments(handle, 0, Object.class);
+        }
+        final Class<?> type = field.getType();
+        handle = handle.asType(MethodType.methodType(type.isPrimitive() ? type : Object.class, Object.class));
+        final FieldAccessor generated = FieldAccessor.generate(field, handle);
+        if (generated != null) {
+            return generated;
+        }
+        if (type == int.class) {
+            return new IntAccessor(field, handle);
+        } else if (type == byte.class) {
+            return new ByteAccessor(field, handle);
+        } else if (type == boolean.class) {
+            return new BooleanAccessor(field, handle);
+        } else if (type == float.class) {
+            return new FloatAccessor(field, handle);
+        } else if (type == double.class) {
+            return new DoubleAccessor(field, handle);
+        } else if (type == long.class) {
+            return new LongAccessor(field, handle);
+        } else if (type == short.class) {
+            return new ShortAccessor(field, handle);
+        } else if (type == char.class) {
+            return new CharAccessor(field, handle);
+        }
+        return new ObjectAccessor(field, handle);
+    }
+
+    static IllegalStateException fail(FieldAccessor accessor, Throwable thrown) {
+        if (thrown instanceof Error) {
+            throw (Error) thrown;
+        }
+        return new IllegalStateException("Could not read " + accessor.field, thrown);
+    }
+
+    private static FieldAccessor generate(Field field, MethodHandle handle) {
+        final Class<?> type = field.getType();
+        if (type == int.class) {
+            return AccessorGenerator.define(IntAccessor.class, "getInt", field, handle);
+        } else if (type == byte.class) {
+            return AccessorGenerator.define(ByteAccessor.class, "getByte", field, handle);
+        } else if (type == boolean.class) {
+            return AccessorGenerator.define(BooleanAccessor.class, "getBoolean", field, handle);
+        } else if (type == float.class) {
+            return AccessorGenerator.define(FloatAccessor.class, "getFloat", field, handle);
+        } else if (type == double.class) {
+            return AccessorGenerator.define(DoubleAccessor.class, "getDouble", field, handle);
+        } else if (type == long.class) {
+            return AccessorGenerator.define(LongAccessor.class, "getLong", field, handle);
+        } else if (type == short.class) {
+            return AccessorGenerator.define(ShortAccessor.class, "getShort", field, handle);
+        } else if (type == char.class) {
+            return AccessorGenerator.define(CharAccessor.class, "getChar", field, handle);
+        }
+        return AccessorGenerator.define(ObjectAccessor.class, "get", field, handle);
+    }
+
+    private final Field field;
+    final MethodHandle handle;
+
+    private FieldAccessor(Field field, MethodHandle handle) {
+        this.field = field;
+        this.handle = handle;
+    }
+
+    abstract void append(StringBuilder builder, Object o);
+
+    abstract Object get(Object o);
+
+    /*
+     * Primitives only, the raw value widened to a long. Equal bits, equal value.
+     */
+    long getBits(Object o) {
+        throw this.wrongType(long.class);
+    }
+
+    boolean getBoolean(Object o) {
+        throw this.wrongType(boolean.class);
+    }
+
+    byte getByte(Object o) {
+        throw this.wrongType(byte.class);
+    }
+
+    char getChar(Object o) {
+        throw this.wrongType(char.class);
+    }
+
+    double getDouble(Object o) {
+        throw this.wrongType(double.class);
+    }
+
+    Field getField() {
+        return this.field;
+    }
+
+    float getFloat(Object o) {
+        throw this.wrongType(float.class);
+    }
+
+    int getInt(Object o) {
+        throw this.wrongType(int.class);
+    }
+
+    long getLong(Object o) {
+        throw this.wrongType(long.class);
+    }
+
+    String getName() {
+        return this.field.getName();
+    }
+
+    short getShort(Object o) {
+        throw this.wrongType(short.class);
+    }
+
+    String getString(Object o) {
+        final StringBuilder builder = new StringBuilder();
+        this.append(builder, o);
+        return builder.toString();
+    }
+
+    Class<?> getType() {
+        return this.field.getType();
+    }
+
+    private UnsupportedOperationException wrongType(Class<?> wanted) {
+        return new UnsupportedOperationException("Field " + this.field + " is not readable as " + wanted);
+    }
+}
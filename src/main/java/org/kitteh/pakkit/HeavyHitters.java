@@ -0,0 +1,230 @@
+/*
+ * Copyright 2012-2013 Matt Baxter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitteh.pakkit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Space-Saving top-k over a sliding window. Each sketch has a fixed number of
+ * slots, a key that doesn't have one takes over the smallest and carries on
+ * from its count. Heavy keys can't be pushed out that way, so the top of the
+ * list is right no matter how many keys go past, and memory never grows.
+ *
+ * One row of sketches per second, one sketch per stripe in a row so the
+ * event loops don't fight over a lock. rotate() moves to the next second.
+ * Each row remembers when it started, as a lagging timer stretches seconds.
+ */
+final class HeavyHitters<K> {
+    static final class Hit<K> {
+        private final K key;
+        private final long count;
+        private final long error;
+
+        private Hit(K key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+
+        /*
+         * Never under the real count, at most getError over it.
+         */
+        long getCount() {
+            return this.count;
+        }
+
+        long getError() {
+            return this.error;
+        }
+
+        K getKey() {
+            return this.key;
+        }
+    }
+
+    private static final class Sketch {
+        private final Object[] keys;
+        private final long[] counts;
+        private final long[] errors;
+        private int size = 0;
+
+        private Sketch(int capacity) {
+            this.keys = new Object[capacity];
+            this.counts = new long[capacity];
+            this.errors = new long[capacity];
+        }
+
+        // Few enough slots that a scan beats hashing, and nothing allocates
+        private synchronized void add(Object key, long weight) {
+            int min = 0;
+            for (int i = 0; i < this.size; i++) {
+                if (this.keys[i].equals(key)) {
+                    this.counts[i] += weight;
+                    return;
+                }
+                if (this.counts[i] < this.counts[min]) {
+                    min = i;
+                }
+            }
+            if (this.size < this.keys.length) {
+                this.keys[this.size] = key;
+                this.counts[this.size] = weight;
+                this.errors[this.size] = 0;
+                this.size++;
+                return;
+            }
+            this.keys[min] = key;
+            this.errors[min] = this.counts[min];
+            this.counts[min] += weight;
+        }
+
+        private synchronized void clear() {
+            for (int i = 0; i < this.size; i++) {
+                this.keys[i] = null;
+            }
+            this.size = 0;
+        }
+
+        /*
+         * A full sketch might have seen any key it doesn't hold, up to its
+         * smallest count. That's added to every key it lacks, through the
+         * returned amount, which top() adds to all. Keys it holds take it
+         * back off here.
+         */
+        private synchronized long mergeInto(Map<Object, long[]> merged) {
+            long min = 0;
+            if (this.size == this.keys.length) {
+                min = Long.MAX_VALUE;
+                for (int i = 0; i < this.size; i++) {
+                    min = Math.min(min, this.counts[i]);
+                }
+            }
+            for (int i = 0; i < this.size; i++) {
+                long[] hit = merged.get(this.keys[i]);
+                if (hit == null) {
+                    hit = new long[2];
+                    merged.put(this.keys[i], hit);
+                }
+                hit[0] += this.counts[i] - min;
+                hit[1] += this.errors[i] - min;
+            }
+            return min;
+        }
+    }
+
+    private final Sketch[][] rows;
+    private final long[] started;
+    private final int mask;
+    private final int window;
+    private volatile int current = 0;
+    private volatile int filled = 0;
+
+    /*
+     * Window in seconds, capacity in keys per sketch.
+     */
+    HeavyHitters(int window, int capacity, int stripes) {
+        int size = 1;
+        while (size < stripes) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.window = window;
+        // Plus the one being filled right now, which isn't counted
+        this.rows = new Sketch[window + 1][size];
+        this.started = new long[window + 1];
+        this.started[0] = System.nanoTime();
+        for (final Sketch[] row : this.rows) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] = new Sketch(capacity);
+            }
+        }
+    }
+
+    void add(K key, long weight) {
+        this.rows[this.current][(int) Thread.currentThread().getId() & this.mask].add(key, weight);
+    }
+
+    int getWindow() {
+        return this.window;
+    }
+
+    /*
+     * Real seconds covered by the finished rows.
+     */
+    double getElapsed() {
+        final int current = this.current;
+        final int oldest = ((current - this.filled) + this.rows.length) % this.rows.length;
+        return (this.started[current] - this.started[oldest]) / 1e9;
+    }
+
+    /*
+     * Rows actually covered so far, up to the window.
+     */
+    int getSpan() {
+        return this.filled;
+    }
+
+    /*
+     * Only from the one timer.
+     */
+    void rotate() {
+        this.rotate(System.nanoTime());
+    }
+
+    void rotate(long nanoTime) {
+        final int next = (this.current + 1) % this.rows.length;
+        for (final Sketch sketch : this.rows[next]) {
+            sketch.clear();
+        }
+        this.started[next] = nanoTime;
+        this.current = next;
+        if (this.filled < this.window) {
+            this.filled++;
+        }
+    }
+
+    List<Hit<K>> top(int count) {
+        final Map<Object, long[]> merged = new HashMap<>();
+        final int current = this.current;
+        long missing = 0;
+        for (int row = 0; row < this.rows.length; row++) {
+            if (row == current) {
+                continue;
+            }
+            for (final Sketch sketch : this.rows[row]) {
+                missing += sketch.mergeInto(merged);
+            }
+        }
+        final List<Hit<K>> hits = new ArrayList<>(merged.size());
+        for (final Map.Entry<Object, long[]> entry : merged.entrySet()) {
+            @SuppressWarnings("unchecked")
+            final K key = (K) entry.getKey();
+            hits.add(new Hit<>(key, entry.getValue()[0] + missing, entry.getValue()[1] + missing));
+        }
+        Collections.sort(hits, new Comparator<Hit<K>>() {
+            @Override
+            public int compare(Hit<K> a, Hit<K> b) {
+                return Long.compare(b.count, a.count);
+            }
+        });
+        return hits.size() > count ? hits.subList(0, count) : hits;
+    }
+}
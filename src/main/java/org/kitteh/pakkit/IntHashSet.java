@@ -0,0 +1,101 @@
+/*
+ * Copyright 2012-2013 Matt Baxter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitteh.pakkit;
+
+import java.util.Arrays;
+
+/*
+ * Open addressing set of ints, no boxing. Not thread-safe, each user keeps
+ * its own.
+ */
+final class IntHashSet {
+    private int[] table;
+    private boolean[] used;
+    private int size = 0;
+
+    IntHashSet() {
+        this(16);
+    }
+
+    IntHashSet(int capacity) {
+        int size = 16;
+        while (size < (capacity * 2)) {
+            size <<= 1;
+        }
+        this.table = new int[size];
+        this.used = new boolean[size];
+    }
+
+    boolean add(int value) {
+        if ((this.size * 2) >= this.table.length) {
+            this.grow();
+        }
+        final int mask = this.table.length - 1;
+        int slot = IntHashSet.hash(value) & mask;
+        while (this.used[slot]) {
+            if (this.table[slot] == value) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        this.used[slot] = true;
+        this.table[slot] = value;
+        this.size++;
+        return true;
+    }
+
+    void clear() {
+        if (this.size == 0) {
+            return;
+        }
+        Arrays.fill(this.used, false);
+        this.size = 0;
+    }
+
+    boolean contains(int value) {
+        final int mask = this.table.length - 1;
+        int slot = IntHashSet.hash(value) & mask;
+        while (this.used[slot]) {
+            if (this.table[slot] == value) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    private void grow() {
+        final int[] oldTable = this.table;
+        final boolean[] oldUsed = this.used;
+        this.table = new int[oldTable.length * 2];
+        this.used = new boolean[oldTable.length * 2];
+        this.size = 0;
+        for (int i = 0; i < oldTable.length; i++) {
+            if (oldUsed[i]) {
+                this.add(oldTable[i]);
+            }
+        }
+    }
+
+    private static int hash(int value) {
+        final int h = value * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2012-2013 Matt Baxter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitteh.pakkit;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Logger;
+
+/*
+ * One JSON object per line:
+ * {"time": 1386000000000, "tick": 1234, "player": "uuid", "name": "mbaxter",
+ * "packet": "RelEntityMove", "direction": "outbound", "fields": {"a": 1}}
+ * Numbers and booleans stay bare, everything else becomes a string.
+ */
+final class JsonSink extends StreamSink {
+    static final String NAME = "json";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    static void appendString(StringBuilder builder, CharSequence string) {
+        builder.append('"');
+        for (int i = 0; i < string.length(); i++) {
+            final char c = string.charAt(i);
+            switch (c) {
+                case '"':
+                    builder.append("\\\"");
+                    break;
+                case '\\':
+                    builder.append("\\\\");
+                    break;
+                case '\n':
+                    builder.append("\\n");
+                    break;
+                case '\r':
+                    builder.append("\\r");
+                    break;
+                case '\t':
+                    builder.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        builder.append("\\u").append(JsonSink.HEX[(c >> 12) & 0xF]).append(JsonSink.HEX[(c >> 8) & 0xF]).append(JsonSink.HEX[(c >> 4) & 0xF]).append(JsonSink.HEX[c & 0xF]);
+                    } else {
+                        builder.append(c);
+                    }
+            }
+        }
+        builder.append('"');
+    }
+
+    static void appendValue(StringBuilder builder, FieldAccessor accessor, Object packet) {
+        final Class<?> type = accessor.getType();
+        if ((type == double.class) || (type == float.class)) {
+            final double value = accessor.getDouble(packet);
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                JsonSink.appendString(builder, String.valueOf(value));
+            } else {
+                accessor.append(builder, packet);
+            }
+        } else if (type.isPrimitive() && (type != char.class)) {
+            accessor.append(builder, packet);
+        } else {
+            final Object value = accessor.get(packet);
+            if (value == null) {
+                builder.append("null");
+            } else {
+                JsonSink.appendString(builder, String.valueOf(value));
+            }
+        }
+    }
+
+    private final StringBuilder line = new StringBuilder(256);
+
+    JsonSink(File file, Logger logger, int capacity) {
+        super(JsonSink.NAME, file, logger, capacity);
+    }
+
+    @Override
+    void encode(DataOutputStream out, CapturedPacket captured) throws IOException {
+        final PakkitPacket pak = captured.getPakkitPacket();
+        final Object packet = captured.getPacket();
+        final StringBuilder builder = this.line;
+        builder.setLength(0);
+        builder.append("{\"time\": ").append(captured.getTime());
+        builder.append(", \"tick\": ").append(captured.getTick());
+        builder.append(", \"player\": ");
+        JsonSink.appendString(builder, captured.getPlayer().getUniqueId().toString());
+        builder.append(", \"name\": ");
+        JsonSink.appendString(builder, captured.getPlayer().getName());
+        builder.append(", \"packet\": ");
+        JsonSink.appendString(builder, Pakkit.getName(pak.getPacketClass()));
+        builder.append(", \"direction\": \"").append(pak.getDirection().name().toLowerCase()).append('"');
+        builder.append(", \"fields\": {");
+        final PakkitPacket.Plan plan = pak.getPlan();
+        final long changed = captured.getChanged();
+        boolean first = true;
+        for (int i = 0; i < plan.size(); i++) {
+            if ((changed != DeltaStore.ALL) && !DeltaStore.isChanged(changed, i)) {
+                continue;
+            }
+            if (!first) {
+                builder.append(", ");
+            }
+            first = false;
+            JsonSink.appendString(builder, plan.getName(i));
+            builder.append(": ");
+            try {
+                JsonSink.appendValue(builder, plan.getAccessor(i), packet);
+            } catch (final RuntimeException e) {
+                builder.append("null");
+            }
+        }
+        builder.append("}}\n");
+        out.write(builder.toString().getBytes(CaptureFormat.UTF_8));
+    }
+}
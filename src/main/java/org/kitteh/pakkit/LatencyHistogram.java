@@ -0,0 +1,141 @@
+/*
+ * Copyright 2012-2013 Matt Baxter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitteh.pakkit;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.minecraft.util.io.netty.channel.ChannelFuture;
+import net.minecraft.util.io.netty.channel.ChannelFutureListener;
+
+/*
+ * Log-linear buckets in nanoseconds, the HdrHistogram layout cut down: each
+ * power of two gets split eight ways, so any bucket is within 1/8 of the
+ * real value and all of a long fits in under 500 buckets. Recording is one
+ * atomic increment, no locks.
+ */
+final class LatencyHistogram {
+    /*
+     * Hangs off the write's promise, from Handler.write to the socket.
+     */
+    static final class Trace implements ChannelFutureListener {
+        private final LatencyHistogram histogram;
+        private final long start;
+
+        Trace(LatencyHistogram histogram, long start) {
+            this.histogram = histogram;
+            this.start = start;
+        }
+
+        @Override
+        public void operationComplete(ChannelFuture future) {
+            if (future.isSuccess()) {
+                this.histogram.record(System.nanoTime() - this.start);
+            } else {
+                this.histogram.failed.incrementAndGet();
+            }
+        }
+    }
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB_COUNT = 1 << LatencyHistogram.SUB_BITS;
+    private static final int BUCKETS = ((64 - LatencyHistogram.SUB_BITS) + 1) * LatencyHistogram.SUB_COUNT;
+
+    static int bucket(long value) {
+        if (value < LatencyHistogram.SUB_COUNT) {
+            return (int) Math.max(0, value);
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int sub = (int) (value >>> (exponent - LatencyHistogram.SUB_BITS)) & (LatencyHistogram.SUB_COUNT - 1);
+        return (((exponent - LatencyHistogram.SUB_BITS) + 1) * LatencyHistogram.SUB_COUNT) + sub;
+    }
+
+    static long lowest(int bucket) {
+        if (bucket < LatencyHistogram.SUB_COUNT) {
+            return bucket;
+        }
+        final int exponent = ((bucket / LatencyHistogram.SUB_COUNT) + LatencyHistogram.SUB_BITS) - 1;
+        return ((long) (LatencyHistogram.SUB_COUNT + (bucket % LatencyHistogram.SUB_COUNT))) << (exponent - LatencyHistogram.SUB_BITS);
+    }
+
+    /*
+     * The top of the bucket, same as HdrHistogram's highest equivalent value.
+     */
+    static long highest(int bucket) {
+        return (bucket + 1) >= LatencyHistogram.BUCKETS ? Long.MAX_VALUE : LatencyHistogram.lowest(bucket + 1) - 1;
+    }
+
+    private final AtomicLongArray counts = new AtomicLongArray(LatencyHistogram.BUCKETS);
+    private final AtomicLong max = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    void record(long nanos) {
+        this.counts.incrementAndGet(LatencyHistogram.bucket(nanos));
+        long max;
+        while ((nanos > (max = this.max.get())) && !this.max.compareAndSet(max, nanos)) {
+            // Someone else raised it, try again
+        }
+    }
+
+    long getCount() {
+        long count = 0;
+        for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+            count += this.counts.get(i);
+        }
+        return count;
+    }
+
+    long getFailed() {
+        return this.failed.get();
+    }
+
+    long getMax() {
+        return this.max.get();
+    }
+
+    /*
+     * Percentile 0 to 100, in nanoseconds. Taken while others record, so it
+     * can be a packet or two behind.
+     */
+    long getPercentile(double percentile) {
+        final long[] snapshot = new long[LatencyHistogram.BUCKETS];
+        long count = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = this.counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        final long wanted = Math.max(1, (long) Math.ceil((percentile / 100) * count));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= wanted) {
+                return Math.min(LatencyHistogram.highest(i), this.max.get());
+            }
+        }
+        return this.max.get();
+    }
+
+    void reset() {
+        for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+            this.counts.set(i, 0);
+        }
+        this.max.set(0);
+        this.failed.set(0);
+    }
+}
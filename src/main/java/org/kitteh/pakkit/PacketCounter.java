@@ -0,0 +1,86 @@
+/*
+ * Copyright 2012-2013 Matt Baxter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitteh.pakkit;
+
+/*
+ * Packet and byte totals plus a minute of once-a-second samples, so rates
+ * over the last 1, 10 and 60 seconds are just a subtraction. Each sample
+ * keeps its nanoTime, as a lagging scheduler runs them further apart.
+ */
+final class PacketCounter {
+    private static final int HISTORY = 61;
+
+    private final StripedCounter packets;
+    private final StripedCounter bytes;
+    private final long[] packetHistory = new long[PacketCounter.HISTORY];
+    private final long[] byteHistory = new long[PacketCounter.HISTORY];
+    private final long[] sampleTimes = new long[PacketCounter.HISTORY];
+    private int head = 0;
+    private int samples = 0;
+
+    PacketCounter(int stripes) {
+        this.packets = new StripedCounter(stripes);
+        this.bytes = new StripedCounter(stripes);
+    }
+
+    void add(int size) {
+        this.packets.add(1);
+        this.bytes.add(size);
+    }
+
+    void addBytes(int size) {
+        this.bytes.add(size);
+    }
+
+    synchronized double getByteRate(int seconds) {
+        return this.rate(this.byteHistory, seconds);
+    }
+
+    synchronized double getPacketRate(int seconds) {
+        return this.rate(this.packetHistory, seconds);
+    }
+
+    long getPackets() {
+        return this.packets.sum();
+    }
+
+    void sample() {
+        this.sample(System.nanoTime());
+    }
+
+    synchronized void sample(long nanoTime) {
+        this.head = (this.head + 1) % PacketCounter.HISTORY;
+        this.sampleTimes[this.head] = nanoTime;
+        this.packetHistory[this.head] = this.packets.sum();
+        this.byteHistory[this.head] = this.bytes.sum();
+        if (this.samples < PacketCounter.HISTORY) {
+            this.samples++;
+        }
+    }
+
+    private double rate(long[] history, int seconds) {
+        final int span = Math.min(seconds, this.samples - 1);
+        if (span <= 0) {
+            return 0;
+        }
+        final int from = ((this.head - span) + PacketCounter.HISTORY) % PacketCounter.HISTORY;
+        final long elapsed = this.sampleTimes[this.head] - this.sampleTimes[from];
+        if (elapsed <= 0) {
+            return 0;
+        }
+        return ((history[this.head] - history[from]) * 1e9) / elapsed;
+    }
+}
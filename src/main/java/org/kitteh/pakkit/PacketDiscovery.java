@@ -0,0 +1,88 @@
+/*
+ * Copyright 2012-2013 Matt Baxter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitteh.pakkit;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.security.CodeSource;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.regex.Pattern;
+
+/*
+ * Finds packet classes by name straight out of the server jar. Nothing is
+ * loaded here, that waits until someone actually asks for the packet.
+ */
+final class PacketDiscovery {
+    // The listener interfaces share the naming scheme, skip them
+    private static final Pattern PACKET_NAME = Pattern.compile("Packet(Handshaking|Login|Play|Status)(In|Out)[A-Z][A-Za-z0-9]*(?<!Listener)");
+
+    /*
+     * Simple name to binary name, for everything in the base packet class's
+     * package that looks like a packet. Empty if it didn't come from a jar.
+     */
+    static Map<String, String> discover(Class<?> base) throws IOException {
+        final Map<String, String> found = new HashMap<>();
+        final CodeSource source = base.getProtectionDomain().getCodeSource();
+        if (source == null) {
+            return found;
+        }
+        File file;
+        try {
+            file = new File(source.getLocation().toURI());
+        } catch (final URISyntaxException | IllegalArgumentException e) {
+            return found;
+        }
+        if (!file.isFile()) {
+            return found;
+        }
+        final String prefix = base.getPackage().getName().replace('.', '/') + '/';
+        try (JarFile jar = new JarFile(file)) {
+            final Enumeration<JarEntry> entries = jar.entries();
+            while (entries.hasMoreElements()) {
+                final String name = entries.nextElement().getName();
+                if (!name.startsWith(prefix) || !name.endsWith(".class") || (name.indexOf('/', prefix.length()) >= 0)) {
+                    continue;
+                }
+                final String simpleName = name.substring(prefix.length(), name.length() - ".class".length());
+                if (PacketDiscovery.PACKET_NAME.matcher(simpleName).matches()) {
+                    found.put(simpleName, base.getPackage().getName() + '.' + simpleName);
+                }
+            }
+        }
+        return found;
+    }
+
+    /*
+     * Null if it turns out not to be a packet after all.
+     */
+    static Class<?> load(Class<?> base, String className) {
+        Class<?> clazz;
+        try {
+            clazz = Class.forName(className, false, base.getClassLoader());
+        } catch (final ClassNotFoundException | LinkageError e) {
+            return null;
+        }
+        return base.isAssignableFrom(clazz) && !clazz.isInterface() ? clazz : null;
+    }
+
+    private PacketDiscovery() {
+    }
+}
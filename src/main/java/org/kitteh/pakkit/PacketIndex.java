@@ -0,0 +1,153 @@
+/*
+ * Copyright 2012-2013 Matt Baxter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitteh.pakkit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.ImmutableList;
+
+/*
+ * Every packet name we know about, loaded or not. Lookups are one hash probe
+ * on the lowercased name, completion is a binary search over a sorted array
+ * that only gets rebuilt when a new packet shows up.
+ */
+final class PacketIndex {
+    static final class Entry {
+        private final String className;
+        private volatile PakkitPacket packet;
+
+        private Entry(String className) {
+            this.className = className;
+        }
+
+        String getClassName() {
+            return this.className;
+        }
+
+        /*
+         * Null until the class has actually been loaded.
+         */
+        PakkitPacket getPacket() {
+            return this.packet;
+        }
+    }
+
+    private static final class Names {
+        private final String[] folded;
+        private final List<String> display;
+
+        private Names(String[] folded, List<String> display) {
+            this.folded = folded;
+            this.display = display;
+        }
+    }
+
+    private static final String PLAY = "PacketPlay";
+    private static final String PLAY_OUT = "PacketPlayOut";
+
+    static String fold(String name) {
+        return name.toLowerCase(Locale.ENGLISH);
+    }
+
+    private final ConcurrentMap<String, Entry> byName = new ConcurrentHashMap<>();
+    private volatile Names names = new Names(new String[0], ImmutableList.<String> of());
+
+    /*
+     * A loaded packet, whether discovery found it or only the config had it.
+     */
+    void add(PakkitPacket packet) {
+        final Class<?> clazz = packet.getPacketClass();
+        this.add(clazz.getSimpleName(), clazz.getName(), packet);
+    }
+
+    void add(String simpleName, String className, PakkitPacket packet) {
+        Entry entry = this.byName.get(PacketIndex.fold(simpleName));
+        if (entry == null) {
+            this.addAll(Collections.singletonMap(simpleName, className));
+            entry = this.byName.get(PacketIndex.fold(simpleName));
+        }
+        if (packet != null) {
+            entry.packet = packet;
+        }
+    }
+
+    /*
+     * Simple name to class name.
+     */
+    synchronized void addAll(Map<String, String> classes) {
+        final List<String> added = new ArrayList<>();
+        for (final Map.Entry<String, String> entry : classes.entrySet()) {
+            final String simpleName = entry.getKey();
+            final Entry created = new Entry(entry.getValue());
+            if (this.byName.putIfAbsent(PacketIndex.fold(simpleName), created) != null) {
+                continue;
+            }
+            // Same forms getPacket has always taken: InFlying, OutAnimation, Animation
+            if (simpleName.startsWith(PacketIndex.PLAY)) {
+                this.byName.putIfAbsent(PacketIndex.fold(simpleName.substring(PacketIndex.PLAY.length())), created);
+            }
+            if (simpleName.startsWith(PacketIndex.PLAY_OUT)) {
+                this.byName.putIfAbsent(PacketIndex.fold(simpleName.substring(PacketIndex.PLAY_OUT.length())), created);
+            }
+            added.add(Pakkit.getName(simpleName));
+        }
+        if (added.isEmpty()) {
+            return;
+        }
+        final List<String> all = new ArrayList<>(this.names.display);
+        all.addAll(added);
+        Collections.sort(all, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return PacketIndex.fold(a).compareTo(PacketIndex.fold(b));
+            }
+        });
+        final String[] folded = new String[all.size()];
+        for (int i = 0; i < folded.length; i++) {
+            folded[i] = PacketIndex.fold(all.get(i));
+        }
+        this.names = new Names(folded, ImmutableList.copyOf(all));
+    }
+
+    /*
+     * Display names starting with the prefix, any case, sorted.
+     */
+    List<String> complete(String prefix) {
+        final Names names = this.names;
+        final String folded = PacketIndex.fold(prefix);
+        int start = Arrays.binarySearch(names.folded, folded);
+        if (start < 0) {
+            start = -start - 1;
+        }
+        int end = start;
+        while ((end < names.folded.length) && names.folded[end].startsWith(folded)) {
+            end++;
+        }
+        return names.display.subList(start, end);
+    }
+
+    Entry get(String name) {
+        return this.byName.get(PacketIndex.fold(name));
+    }
+}
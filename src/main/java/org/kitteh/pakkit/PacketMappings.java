@@ -0,0 +1,313 @@
+/*
+ * Copyright 2012-2013 Matt Baxter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitteh.pakkit;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.CharStreams;
+import com.google.common.io.Files;
+
+/*
+ * Packet mappings are data, one file per server version, see
+ * mappings/v1_7_R1.yml for the format. Bound against the running server once,
+ * after that it's the same FieldAccessors the old hand-written enum had.
+ */
+final class PacketMappings {
+    /*
+     * Sorted keys, binary searched. No boxing on the lookup.
+     */
+    static final class Labels {
+        private final int[] keys;
+        private final String[] labels;
+        private final String unknown;
+
+        Labels(ConfigurationSection values, String unknown) {
+            final Map<String, Object> map = values.getValues(false);
+            this.keys = new int[map.size()];
+            int i = 0;
+            for (final String key : map.keySet()) {
+                this.keys[i++] = Integer.parseInt(key.trim());
+            }
+            Arrays.sort(this.keys);
+            this.labels = new String[this.keys.length];
+            for (final Map.Entry<String, Object> entry : map.entrySet()) {
+                this.labels[Arrays.binarySearch(this.keys, Integer.parseInt(entry.getKey().trim()))] = String.valueOf(entry.getValue());
+            }
+            this.unknown = unknown;
+        }
+
+        /*
+         * Null for unknown values, unless there's a label for those.
+         */
+        String get(int value) {
+            final int i = Arrays.binarySearch(this.keys, value);
+            return i < 0 ? this.unknown : this.labels[i];
+        }
+    }
+
+    static final class LabelOutput extends PacketRegistry.OutputIntItem {
+        private final Labels labels;
+
+        LabelOutput(Labels labels) {
+            this.labels = labels;
+        }
+
+        @Override
+        String getOutput(Object packet, int value) {
+            return this.labels.get(value);
+        }
+    }
+
+    /*
+     * Decodes by what's in another field, compared by identity against static
+     * constants. How BLOCK_ACTION means different things for different blocks.
+     */
+    static final class SwitchOutput extends PacketRegistry.OutputIntMultiItem {
+        private final FieldAccessor by;
+        private final Object[] constants;
+        private final String[] names;
+        private final Labels[] labels;
+
+        SwitchOutput(FieldAccessor by, Object[] constants, String[] names, Labels[] labels) {
+            this.by = by;
+            this.constants = constants;
+            this.names = names;
+            this.labels = labels;
+        }
+
+        @Override
+        void append(StringBuilder builder, Object packet, int value) {
+            Object key;
+            try {
+                key = this.by.get(packet);
+            } catch (final RuntimeException e) {
+                key = null;
+            }
+            if (key == null) {
+                PacketRegistry.item(builder, "error", "null values");
+                return;
+            }
+            for (int i = 0; i < this.constants.length; i++) {
+                if (this.constants[i] == key) {
+                    if (this.labels[i] == null) {
+                        PacketRegistry.item(builder, this.names[i], value);
+                    } else {
+                        final String label = this.labels[i].get(value);
+                        if (label == null) {
+                            PacketRegistry.item(builder, this.names[i], "Unknown(" + value + ")");
+                        } else {
+                            PacketRegistry.item(builder, this.names[i], label);
+                        }
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    static final String DIRECTORY = "mappings";
+
+    /*
+     * A copy in the data folder wins over the bundled one.
+     */
+    static List<PacketRegistry> load(Plugin plugin, String version, String nmsPackage) {
+        final String fileName = version + ".yml";
+        final File file = new File(new File(plugin.getDataFolder(), PacketMappings.DIRECTORY), fileName);
+        String yaml;
+        try {
+            if (file.isFile()) {
+                yaml = Files.toString(file, Charsets.UTF_8);
+            } else {
+                final InputStream in = plugin.getResource(PacketMappings.DIRECTORY + "/" + fileName);
+                if (in == null) {
+                    plugin.getLogger().warning("No packet mappings for " + version + ", packets only show their raw fields");
+                    return new ArrayList<>();
+                }
+                try (InputStreamReader reader = new InputStreamReader(in, Charsets.UTF_8)) {
+                    yaml = CharStreams.toString(reader);
+                }
+            }
+        } catch (final IOException e) {
+            plugin.getLogger().warning("Could not read packet mappings for " + version + ": " + e.getMessage());
+            return new ArrayList<>();
+        }
+        final YamlConfiguration config = new YamlConfiguration();
+        try {
+            config.loadFromString(yaml);
+        } catch (final InvalidConfigurationException e) {
+            plugin.getLogger().warning("Broken packet mappings for " + version + ": " + e.getMessage());
+            return new ArrayList<>();
+        }
+        return PacketMappings.bind(config, nmsPackage, plugin.getLogger());
+    }
+
+    /*
+     * Whatever doesn't bind is skipped with a warning, the rest still work.
+     */
+    static List<PacketRegistry> bind(ConfigurationSection config, String nmsPackage, Logger logger) {
+        final List<PacketRegistry> registries = new ArrayList<>();
+        for (final String name : config.getKeys(false)) {
+            if (!config.isConfigurationSection(name)) {
+                continue;
+            }
+            try {
+                registries.add(PacketMappings.bind(name, config.getConfigurationSection(name), nmsPackage));
+            } catch (final ReflectiveOperationException | RuntimeException | LinkageError e) {
+                logger.warning("Could not bind packet mapping " + name + ": " + e);
+            }
+        }
+        return registries;
+    }
+
+    private static PacketRegistry bind(String name, ConfigurationSection section, String nmsPackage) throws ReflectiveOperationException {
+        final Class<?> clazz = PacketMappings.type(PacketMappings.require(section, "class"), nmsPackage);
+        final List<PacketRegistry.PacketInfo> mapping = new ArrayList<>();
+        final ConfigurationSection fields = section.getConfigurationSection("fields");
+        if (fields != null) {
+            for (final String fieldName : fields.getKeys(false)) {
+                final ConfigurationSection field = fields.getConfigurationSection(fieldName);
+                if (field == null) {
+                    throw new IllegalArgumentException("Field " + fieldName + " needs a type and name");
+                }
+                final FieldAccessor accessor = PacketMappings.accessor(clazz, fieldName, PacketMappings.type(PacketMappings.require(field, "type"), nmsPackage));
+                mapping.add(new PacketRegistry.PacketInfo(PacketMappings.require(field, "name"), accessor, PacketMappings.output(clazz, field, nmsPackage)));
+            }
+        }
+        return new PacketRegistry(name, clazz, mapping);
+    }
+
+    private static FieldAccessor accessor(Class<?> clazz, String fieldName, Class<?> type) throws NoSuchFieldException {
+        final Field field = PacketMappings.field(clazz, fieldName);
+        if (!field.getType().equals(type)) {
+            throw new IllegalArgumentException("Field " + fieldName + " in " + clazz.getSimpleName() + " is " + field.getType().getSimpleName() + ", not " + type.getSimpleName());
+        }
+        return FieldAccessor.of(field);
+    }
+
+    private static Field field(Class<?> clazz, String fieldName) throws NoSuchFieldException {
+        for (Class<?> c = clazz; (c != null) && !c.equals(Object.class); c = c.getSuperclass()) {
+            try {
+                return c.getDeclaredField(fieldName);
+            } catch (final NoSuchFieldException e) {
+                continue;
+            }
+        }
+        throw new NoSuchFieldException("No field " + fieldName + " in " + clazz.getSimpleName());
+    }
+
+    private static PacketRegistry.Output output(Class<?> clazz, ConfigurationSection field, String nmsPackage) throws ReflectiveOperationException {
+        final String decoder = field.getString("decoder");
+        if (decoder == null) {
+            return PacketRegistry.DEFAULT_OUTPUT;
+        }
+        switch (decoder.toLowerCase()) {
+            case "labels":
+                return new LabelOutput(PacketMappings.labels(field));
+            case "switch":
+                final FieldAccessor by = FieldAccessor.of(PacketMappings.field(clazz, PacketMappings.require(field, "by")));
+                final Class<?> constants = PacketMappings.type(PacketMappings.require(field, "constants"), nmsPackage);
+                final ConfigurationSection cases = field.getConfigurationSection("cases");
+                if (cases == null) {
+                    throw new IllegalArgumentException("Switch on " + field.getName() + " has no cases");
+                }
+                final List<Object> values = new ArrayList<>();
+                final List<String> names = new ArrayList<>();
+                final List<Labels> labels = new ArrayList<>();
+                for (final String constant : cases.getKeys(false)) {
+                    final Field constantField = constants.getField(constant);
+                    if (!Modifier.isStatic(constantField.getModifiers())) {
+                        throw new IllegalArgumentException(constant + " in " + constants.getSimpleName() + " is not static");
+                    }
+                    final ConfigurationSection branch = cases.getConfigurationSection(constant);
+                    if (branch == null) {
+                        throw new IllegalArgumentException("Case " + constant + " needs a name");
+                    }
+                    values.add(constantField.get(null));
+                    names.add(PacketMappings.require(branch, "name"));
+                    labels.add(branch.isConfigurationSection("values") ? PacketMappings.labels(branch) : null);
+                }
+                return new SwitchOutput(by, values.toArray(), names.toArray(new String[names.size()]), labels.toArray(new Labels[labels.size()]));
+            default:
+                throw new IllegalArgumentException("Unknown decoder " + decoder);
+        }
+    }
+
+    private static Labels labels(ConfigurationSection section) {
+        final ConfigurationSection values = section.getConfigurationSection("values");
+        if (values == null) {
+            throw new IllegalArgumentException(section.getName() + " has no values to label");
+        }
+        try {
+            return new Labels(values, section.getString("unknown"));
+        } catch (final NumberFormatException e) {
+            throw new IllegalArgumentException("Labels in " + section.getName() + " need int keys", e);
+        }
+    }
+
+    private static String require(ConfigurationSection section, String key) {
+        final String value = section.getString(key);
+        if (value == null) {
+            throw new IllegalArgumentException(section.getName() + " is missing " + key);
+        }
+        return value;
+    }
+
+    /*
+     * Primitive names, String, a name in the NMS package or a full class name.
+     */
+    private static Class<?> type(String name, String nmsPackage) throws ClassNotFoundException {
+        switch (name) {
+            case "boolean":
+                return boolean.class;
+            case "byte":
+                return byte.class;
+            case "char":
+                return char.class;
+            case "double":
+                return double.class;
+            case "float":
+                return float.class;
+            case "int":
+                return int.class;
+            case "long":
+                return long.class;
+            case "short":
+                return short.class;
+            case "String":
+                return String.class;
+            default:
+                return Class.forName(name.indexOf('.') < 0 ? nmsPackage + "." + name : name, false, PacketMappings.class.getClassLoader());
+        }
+    }
+
+    private PacketMappings() {
+    }
+}
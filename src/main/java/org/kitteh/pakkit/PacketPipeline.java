@@ -0,0 +1,184 @@
+/*
+ * Copyright 2012-2013 Matt Baxter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitteh.pakkit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import org.bukkit.entity.Player;
+
+/*
+ * Netty threads only ever offer to the queue. Recording and feeding the
+ * sinks happens over here on our own thread, a batch at a time.
+ */
+final class PacketPipeline implements Runnable {
+    enum FullPolicy {
+        BLOCK,
+        DROP;
+
+        static FullPolicy match(String name) {
+            for (final FullPolicy policy : FullPolicy.values()) {
+                if (policy.name().equalsIgnoreCase(name)) {
+                    return policy;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final long DROP_WARN_INTERVAL = TimeUnit.SECONDS.toMillis(10);
+    private static final int DELTA_ROWS = 4096;
+
+    private final Pakkit pakkit;
+    private final BlockingQueue<CapturedPacket> queue;
+    private final FullPolicy policy;
+    // How long BLOCK holds up a Netty thread before giving up on the packet
+    private final long blockMillis;
+    private final int batchSize;
+    private final AtomicLong dropped = new AtomicLong();
+    // Only touched from our thread, gone with the Player once they quit
+    private final Map<Player, DeltaStore> deltas = new WeakHashMap<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+    private long lastDropWarning;
+
+    PacketPipeline(Pakkit pakkit, int capacity, FullPolicy policy, long blockMillis, int batchSize) {
+        this.pakkit = pakkit;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.policy = policy;
+        this.blockMillis = blockMillis;
+        this.batchSize = batchSize;
+        this.thread = new Thread(this, "Pakkit Pipeline");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    @Override
+    public void run() {
+        final List<CapturedPacket> batch = new ArrayList<>(this.batchSize);
+        while (this.running) {
+            try {
+                final CapturedPacket first = this.queue.poll(250, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    this.queue.drainTo(batch, this.batchSize - 1);
+                    this.process(batch);
+                }
+            } catch (final InterruptedException e) {
+                break;
+            } catch (final Exception e) {
+                this.pakkit.getLogger().log(Level.WARNING, "Pipeline choked on a batch", e);
+            } finally {
+                batch.clear();
+            }
+            this.warnDropped();
+        }
+    }
+
+    void shutdown() {
+        this.running = false;
+        this.thread.interrupt();
+        try {
+            this.thread.join(TimeUnit.SECONDS.toMillis(2));
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.queue.clear();
+    }
+
+    void submit(Player player, PakkitPacket pakkitPacket, Object packet, long tick) {
+        if (!this.running) {
+            return;
+        }
+        final CapturedPacket captured = new CapturedPacket(player, pakkitPacket, packet, System.currentTimeMillis(), tick);
+        if (this.queue.offer(captured)) {
+            return;
+        }
+        try {
+            if ((this.policy == FullPolicy.BLOCK) && this.queue.offer(captured, this.blockMillis, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.dropped.incrementAndGet();
+    }
+
+    private void process(List<CapturedPacket> batch) {
+        try {
+            for (final CapturedPacket captured : batch) {
+                this.pakkit.record(captured);
+                if (!captured.getPakkitPacket().isEnabled() || !this.delta(captured)) {
+                    continue;
+                }
+                for (final PacketSink sink : this.pakkit.getSinks(captured.getPakkitPacket())) {
+                    sink.write(captured);
+                }
+            }
+        } finally {
+            for (final PacketSink sink : this.pakkit.getSinks()) {
+                sink.flush();
+            }
+        }
+    }
+
+    /*
+     * False if delta mode is on and nothing changed.
+     */
+    private boolean delta(CapturedPacket captured) {
+        final PakkitPacket pak = captured.getPakkitPacket();
+        if (!pak.isDelta()) {
+            return true;
+        }
+        DeltaStore store = this.deltas.get(captured.getPlayer());
+        if (store == null) {
+            store = new DeltaStore(PacketPipeline.DELTA_ROWS);
+            this.deltas.put(captured.getPlayer(), store);
+        }
+        final FieldAccessor entity = pak.getEntityAccessor();
+        final Object packet = captured.getPacket();
+        final int id = entity == null ? 0 : entity.getInt(packet);
+        final long changed = store.changed(pak, pak.getPlan(), id, packet);
+        captured.setChanged(changed);
+        final PacketRegistry registry = PacketRegistry.get(packet.getClass());
+        if (registry == null) {
+            return changed != 0;
+        }
+        // Chat prints these through the registry mapping, its bits have to match that
+        final long registryChanged = store.changed(pak, registry, id, packet);
+        captured.setRegistryChanged(registryChanged);
+        return (changed != 0) || (registryChanged != 0);
+    }
+
+    private void warnDropped() {
+        final long now = System.currentTimeMillis();
+        if ((now - this.lastDropWarning) < PacketPipeline.DROP_WARN_INTERVAL) {
+            return;
+        }
+        final long count = this.dropped.getAndSet(0);
+        if (count > 0) {
+            this.pakkit.getLogger().warning("Pipeline full, dropped " + count + " packets");
+            this.lastDropWarning = now;
+        }
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright 2012-2013 Matt Baxter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitteh.pakkit;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/*
+ * Writes captured packets into memory-mapped segment files, rotating on size
+ * and age. Only the pipeline thread writes, everything else just closes.
+ */
+final class PacketRecorder {
+    private static final int CLASS_ID_OFFSET = 1;
+    private static final int PACKET_ID_OFFSET = 1 + 8 + 8 + 8 + 8;
+
+    private final File directory;
+    private final int segmentSize;
+    private final long segmentAge;
+    private final Map<Class<?>, Short> classIds = new HashMap<>();
+    private final List<String> classNames = new ArrayList<>();
+    private final Set<UUID> players = new HashSet<>();
+    private int[] classCounts = new int[32];
+    private long firstTime;
+    private long lastTime;
+    private int packets;
+    private int oversized = 0;
+    private ByteBuffer classFrame = ByteBuffer.allocate(256);
+    private ByteBuffer packetFrame = ByteBuffer.allocate(256);
+    private final StringBuilder decoded = new StringBuilder();
+    private int segmentCount = 0;
+    private long segmentStart;
+    private File segment;
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private boolean closed = false;
+
+    PacketRecorder(File directory, int segmentSize, long segmentAge) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.segmentAge = segmentAge;
+    }
+
+    synchronized void close() throws IOException {
+        this.closed = true;
+        this.closeSegment();
+    }
+
+    File getDirectory() {
+        return this.directory;
+    }
+
+    /*
+     * Packets skipped for not fitting in a segment, even an empty one.
+     */
+    synchronized int getOversized() {
+        return this.oversized;
+    }
+
+    synchronized void write(CapturedPacket captured) throws IOException {
+        if (this.closed) {
+            return;
+        }
+        final long time = captured.getTime();
+        if ((this.buffer != null) && ((time - this.segmentStart) >= this.segmentAge)) {
+            this.closeSegment();
+        }
+        if (this.buffer == null) {
+            this.openSegment(time);
+        }
+        final Class<?> clazz = captured.getPacket().getClass();
+        final PacketRegistry registry = PacketRegistry.get(clazz);
+        final List<PacketRegistry.PacketInfo> mapping = registry == null ? null : registry.getMapping();
+        this.packetFrame = PacketRecorder.framePacket(this.packetFrame, captured, mapping, this.decoded);
+        Short id = this.classIds.get(clazz);
+        if (id == null) {
+            this.classFrame = PacketRecorder.frameClass(this.classFrame, clazz, registry, mapping);
+        }
+        // Frames are length prefixed, plus four for the end marker written on close
+        final int needed = (id == null ? 4 + this.classFrame.remaining() : 0) + 4 + this.packetFrame.remaining() + 4;
+        if (needed > this.buffer.remaining()) {
+            if (id != null) {
+                this.classFrame = PacketRecorder.frameClass(this.classFrame, clazz, registry, mapping);
+            }
+            if ((4 + this.classFrame.remaining() + 4 + this.packetFrame.remaining() + 4) > (this.segmentSize - CaptureFormat.HEADER_SIZE)) {
+                this.oversized++;
+                return;
+            }
+            this.closeSegment();
+            this.openSegment(time);
+            id = null;
+        }
+        if (id == null) {
+            id = (short) this.classIds.size();
+            this.classIds.put(clazz, id);
+            this.classNames.add(registry == null ? clazz.getSimpleName() : registry.getName());
+            if (id >= this.classCounts.length) {
+                this.classCounts = Arrays.copyOf(this.classCounts, this.classCounts.length * 2);
+            }
+            this.classFrame.putShort(PacketRecorder.CLASS_ID_OFFSET, id);
+            this.put(this.classFrame);
+        }
+        this.packetFrame.putShort(PacketRecorder.PACKET_ID_OFFSET, id);
+        this.put(this.packetFrame);
+        this.classCounts[id]++;
+        this.players.add(captured.getPlayer().getUniqueId());
+        if (this.packets++ == 0) {
+            this.firstTime = time;
+        }
+        this.lastTime = time;
+    }
+
+    private void closeSegment() throws IOException {
+        if (this.buffer == null) {
+            return;
+        }
+        this.buffer.putInt(0);
+        final int end = this.buffer.position();
+        this.buffer.force();
+        // Java can't unmap, so the mapping lives until collected. Windows won't
+        // truncate a mapped file, in which case the zero fill stays behind the
+        // end marker and readers stop there anyway.
+        this.buffer = null;
+        try {
+            this.channel.truncate(end);
+        } catch (final IOException ignored) {
+        }
+        this.channel.close();
+        this.file.close();
+        this.channel = null;
+        this.file = null;
+        this.writeIndex();
+    }
+
+    private void openSegment(long time) throws IOException {
+        this.segment = new File(this.directory, String.format("%06d", this.segmentCount++) + CaptureFormat.EXTENSION);
+        this.file = new RandomAccessFile(this.segment, "rw");
+        this.channel = this.file.getChannel();
+        this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, this.segmentSize);
+        this.buffer.putInt(CaptureFormat.MAGIC);
+        this.buffer.putShort(CaptureFormat.VERSION);
+        this.buffer.putLong(time);
+        this.segmentStart = time;
+        this.classIds.clear();
+        this.classNames.clear();
+        this.players.clear();
+        Arrays.fill(this.classCounts, 0);
+        this.packets = 0;
+    }
+
+    private void writeIndex() throws IOException {
+        int size = 4 + 2 + 8 + 8 + 4 + 2 + 4 + (this.players.size() * 16);
+        for (final String name : this.classNames) {
+            size += 2 + (name.length() * 3) + 4;
+        }
+        final ByteBuffer index = ByteBuffer.allocate(size);
+        index.putInt(CaptureFormat.INDEX_MAGIC);
+        index.putShort(CaptureFormat.VERSION);
+        index.putLong(this.firstTime);
+        index.putLong(this.lastTime);
+        index.putInt(this.packets);
+        index.putShort((short) this.classNames.size());
+        for (int i = 0; i < this.classNames.size(); i++) {
+            CaptureFormat.putString(index, this.classNames.get(i));
+            index.putInt(this.classCounts[i]);
+        }
+        index.putInt(this.players.size());
+        for (final UUID uuid : this.players) {
+            index.putLong(uuid.getMostSignificantBits());
+            index.putLong(uuid.getLeastSignificantBits());
+        }
+        index.flip();
+        final String name = this.segment.getName();
+        final File file = new File(this.directory, name.substring(0, name.length() - CaptureFormat.EXTENSION.length()) + CaptureFormat.INDEX_EXTENSION);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.getChannel().write(index);
+        }
+    }
+
+    private void put(ByteBuffer frame) {
+        this.buffer.putInt(frame.remaining());
+        this.buffer.put(frame);
+    }
+
+    private static ByteBuffer ensure(ByteBuffer frame, int extra) {
+        if (frame.remaining() >= extra) {
+            return frame;
+        }
+        final ByteBuffer bigger = ByteBuffer.allocate(Math.max(frame.capacity() * 2, frame.position() + extra));
+        frame.flip();
+        bigger.put(frame);
+        return bigger;
+    }
+
+    private static ByteBuffer frameClass(ByteBuffer frame, Class<?> clazz, PacketRegistry registry, List<PacketRegistry.PacketInfo> mapping) {
+        frame.clear();
+        frame.put(CaptureFormat.FRAME_CLASS);
+        frame.putShort((short) 0);
+        frame = PacketRecorder.putString(frame, registry == null ? clazz.getSimpleName() : registry.getName());
+        frame = PacketRecorder.putString(frame, clazz.getName());
+        frame = PacketRecorder.ensure(frame, 2);
+        if (mapping == null) {
+            frame.putShort((short) 0);
+        } else {
+            frame.putShort((short) mapping.size());
+            for (final PacketRegistry.PacketInfo info : mapping) {
+                frame = PacketRecorder.putString(frame, info.getName());
+                frame = PacketRecorder.ensure(frame, 1);
+                frame.put(PacketRecorder.isDecoded(info) ? CaptureFormat.TYPE_DECODED : CaptureFormat.typeOf(info.getAccessor().getType()));
+            }
+        }
+        frame.flip();
+        return frame;
+    }
+
+    private static ByteBuffer framePacket(ByteBuffer frame, CapturedPacket captured, List<PacketRegistry.PacketInfo> mapping, StringBuilder decoded) {
+        frame.clear();
+        final UUID uuid = captured.getPlayer().getUniqueId();
+        frame.put(CaptureFormat.FRAME_PACKET);
+        frame.putLong(captured.getTime());
+        frame.putLong(captured.getTick());
+        frame.putLong(uuid.getMostSignificantBits());
+        frame.putLong(uuid.getLeastSignificantBits());
+        frame.putShort((short) 0);
+        if (mapping != null) {
+            final Object packet = captured.getPacket();
+            for (final PacketRegistry.PacketInfo info : mapping) {
+                final FieldAccessor accessor = info.getAccessor();
+                if (PacketRecorder.isDecoded(info)) {
+                    // Items exactly as PacketRegistry prints them, minus the last separator
+                    decoded.setLength(0);
+                    info.getOutputter().append(decoded, info.getName(), accessor, packet);
+                    decoded.setLength(Math.max(0, decoded.length() - 2));
+                    frame = PacketRecorder.putString(frame, decoded.toString());
+                    continue;
+                }
+                frame = PacketRecorder.ensure(frame, 8);
+                switch (CaptureFormat.typeOf(accessor.getType())) {
+                    case CaptureFormat.TYPE_BOOLEAN:
+                        frame.put((byte) (accessor.getBoolean(packet) ? 1 : 0));
+                        break;
+                    case CaptureFormat.TYPE_BYTE:
+                        frame.put(accessor.getByte(packet));
+                        break;
+                    case CaptureFormat.TYPE_CHAR:
+                        frame.putChar(accessor.getChar(packet));
+                        break;
+                    case CaptureFormat.TYPE_DOUBLE:
+                        frame.putDouble(accessor.getDouble(packet));
+                        break;
+                    case CaptureFormat.TYPE_FLOAT:
+                        frame.putFloat(accessor.getFloat(packet));
+                        break;
+                    case CaptureFormat.TYPE_INT:
+                        frame.putInt(accessor.getInt(packet));
+                        break;
+                    case CaptureFormat.TYPE_LONG:
+                        frame.putLong(accessor.getLong(packet));
+                        break;
+                    case CaptureFormat.TYPE_SHORT:
+                        frame.putShort(accessor.getShort(packet));
+                        break;
+                    default:
+                        frame = PacketRecorder.putString(frame, String.valueOf(accessor.get(packet)));
+                }
+            }
+        }
+        frame.flip();
+        return frame;
+    }
+
+    /*
+     * Labels live in the mappings, which the offline reader doesn't have.
+     * Anything not printed raw is written out already decoded.
+     */
+    private static boolean isDecoded(PacketRegistry.PacketInfo info) {
+        return !(info.getOutputter() instanceof PacketRegistry.OutputDefault);
+    }
+
+    private static ByteBuffer putString(ByteBuffer frame, String string) {
+        frame = PacketRecorder.ensure(frame, 2 + (string.length() * 3));
+        CaptureFormat.putString(frame, string);
+        return frame;
+    }
+}
@@ -15,353 +15,95 @@
  */
 package org.kitteh.pakkit;
 
-import java.lang.reflect.Field;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
-
-import net.minecraft.server.v1_7_R1.Block;
-import net.minecraft.server.v1_7_R1.Blocks;
-import net.minecraft.server.v1_7_R1.Packet;
-import net.minecraft.server.v1_7_R1.PacketPlayOutAbilities;
-import net.minecraft.server.v1_7_R1.PacketPlayOutAnimation;
-import net.minecraft.server.v1_7_R1.PacketPlayOutAttachEntity;
-import net.minecraft.server.v1_7_R1.PacketPlayOutBed;
-import net.minecraft.server.v1_7_R1.PacketPlayOutBlockAction;
-import net.minecraft.server.v1_7_R1.PacketPlayOutBlockBreakAnimation;
-import net.minecraft.server.v1_7_R1.PacketPlayOutEntityTeleport;
-import net.minecraft.server.v1_7_R1.PacketPlayOutEntityVelocity;
-import net.minecraft.server.v1_7_R1.PacketPlayOutNamedEntitySpawn;
-import net.minecraft.server.v1_7_R1.PacketPlayOutRelEntityMove;
-import net.minecraft.server.v1_7_R1.PacketPlayOutRelEntityMoveLook;
 
 import com.google.common.collect.ImmutableMap;
 
-public enum PacketRegistry {
-    ABILITIES(PacketPlayOutAbilities.class) {
-        {
-            this.map("a", boolean.class, "isInvulnerable");
-            this.map("b", boolean.class, "isFlying");
-            this.map("c", boolean.class, "canFly");
-            this.map("d", boolean.class, "canInstantlyBuild");
-            this.map("e", float.class, "flyspeed");
-            this.map("f", float.class, "walkspeed");
-        }
-    },
-    ANIMATION(PacketPlayOutAnimation.class) {
-        {
-            this.map("a", int.class, PacketRegistry.ENTITY_ID);
-            this.map("b", int.class, "animation", new OutputSingleItem() {
-                @Override
-                String getOutput(Object packet, Object extractedObject) {
-                    if (!(extractedObject instanceof Integer)) {
-                        return "NULL, ERROR";
-                    }
-                    final int value = ((Integer) extractedObject).intValue();
-                    switch (value) {
-                        case 0:
-                            return "None";
-                        case 1:
-                            return "Swing arm";
-                        case 2:
-                            return "Damaged";
-                        case 3:
-                            return "Leave bed";
-                        case 5:
-                            return "Eat food";
-                        case 6:
-                            return "Critical!";
-                        case 7:
-                            return "Magical Critical!";
-                        case 104:
-                            return "Crouch";
-                        case 105:
-                            return "Stop crouching";
-                        default:
-                            return "Unknown(" + value + ")";
-                    }
-                }
-            });
-        }
-    },
-    ATTACH_ENTITY(PacketPlayOutAttachEntity.class) {
-        {
-            this.map("a", int.class, "attachType", new OutputSingleItem() {
-                @Override
-                String getOutput(Object packet, Object extractedObject) {
-                    if (!(extractedObject instanceof Integer)) {
-                        return "NULL, ERROR";
-                    }
-                    final int value = ((Integer) extractedObject).intValue();
-                    switch (value) {
-                        case 0:
-                            return "Vehicle";
-                        case 1:
-                            return "Leash";
-                        default:
-                            return "Unknown(" + value + ")";
-                    }
-                }
-            });
-            this.map("b", int.class, PacketRegistry.ENTITY_ID + "_rider/leashed");
-            this.map("c", int.class, PacketRegistry.ENTITY_ID + "_vehicle/holder");
-        }
-    },
-    BED(PacketPlayOutBed.class) {
-        {
-            this.map("a", int.class, PacketRegistry.ENTITY_ID);
-            this.map("b", int.class, "X");
-            this.map("c", int.class, "Y");
-            this.map("d", int.class, "Z");
-        }
-    },
-    BLOCK_ACTION(PacketPlayOutBlockAction.class) {
-        {
-            final Getter<Block> blockGetter = this.map("f", Block.class, "block");
-            this.map("a", int.class, "X");
-            this.map("b", int.class, "Y");
-            this.map("c", int.class, "Z");
-            this.map("d", int.class, "byte1", new OutputMultiItem() {
-                @Override
-                Map<String, String> getItems(Object packet, Object extractedObject) {
-                    final Map<String, String> map = new HashMap<>();
-                    final Block block = blockGetter.get(packet);
-                    if ((block == null) || (extractedObject == null)) {
-                        map.put("error", "null values");
-                        return map;
-                    }
-                    if (block == Blocks.NOTE_BLOCK) {
-                        String instrument;
-                        final int type = ((Integer) extractedObject).intValue();
-                        switch (type) {
-                            case 0:
-                                instrument = "harp";
-                                break;
-                            case 1:
-                                instrument = "double bass";
-                                break;
-                            case 2:
-                                instrument = "snare drum";
-                                break;
-                            case 3:
-                                instrument = "click";
-                                break;
-                            case 4:
-                                instrument = "bass drum";
-                                break;
-                            default:
-                                instrument = "unknown";
-                        }
-                        map.put("instrument", instrument);
-                    } else if (block == Blocks.PISTON) {
-                        final int type = ((Integer) extractedObject).intValue();
-                        String movement;
-                        switch (type) {
-                            case 0:
-                                movement = "pushing";
-                                break;
-                            case 1:
-                                movement = "pulling";
-                                break;
-                            default:
-                                movement = "unknown";
-                        }
-                        map.put("movement", movement);
-                    } else if ((block == Blocks.CHEST) || (block == Blocks.TRAPPED_CHEST)) {
-                        final int type = ((Integer) extractedObject).intValue();
-                        map.put("value-always-1", String.valueOf(type));
-                    }
-                    return map;
-                }
-            });
-            this.map("e", int.class, "byte2", new OutputMultiItem() {
-                @Override
-                Map<String, String> getItems(Object packet, Object extractedObject) {
-                    final Map<String, String> map = new HashMap<>();
-                    final Block block = blockGetter.get(packet);
-                    if ((block == null) || (extractedObject == null)) {
-                        map.put("error", "null values");
-                        return map;
-                    }
-                    if (block == Blocks.NOTE_BLOCK) {
-                        map.put("pitch", String.valueOf(((Integer) extractedObject).intValue()));
-                    } else if (block == Blocks.PISTON) {
-                        final int type = ((Integer) extractedObject).intValue();
-                        String movement;
-                        switch (type) {
-                            case 0:
-                                movement = "down";
-                                break;
-                            case 1:
-                                movement = "up";
-                                break;
-                            case 2:
-                                movement = "south";
-                                break;
-                            case 3:
-                                movement = "west";
-                                break;
-                            case 4:
-                                movement = "north";
-                                break;
-                            case 5:
-                                movement = "east";
-                                break;
-                            default:
-                                movement = "unknown";
-                        }
-                        map.put("movement", movement);
-                    } else if ((block == Blocks.CHEST) || (block == Blocks.TRAPPED_CHEST)) {
-                        final int type = ((Integer) extractedObject).intValue();
-                        String state;
-                        switch (type) {
-                            case 0:
-                                state = "closed";
-                                break;
-                            case 1:
-                                state = "open";
-                                break;
-                            default:
-                                state = "unknown";
-                        }
-                        map.put("chest state", state);
-                    }
-                    return map;
-                }
-            });
-        }
-    },
-    BLOCK_BREAK_ANIMATION(PacketPlayOutBlockBreakAnimation.class) {
-        {
-            this.map("a", int.class, PacketRegistry.ENTITY_ID);
-            this.map("b", int.class, "X");
-            this.map("c", int.class, "Y");
-            this.map("d", int.class, "Z");
-            this.map("e", int.class, "destruction level");
-        }
-    },
-    SPAWN(PacketPlayOutNamedEntitySpawn.class) {
-        {
-            this.map("a", int.class, PacketRegistry.ENTITY_ID);
-            this.map("c", int.class, "X");
-            this.map("d", int.class, "Y");
-            this.map("e", int.class, "Z");
-        }
-    },
-    VELOCITY(PacketPlayOutEntityVelocity.class) {
-        {
-            this.map("a", int.class, PacketRegistry.ENTITY_ID);
-            this.map("b", int.class, "MOT_X");
-            this.map("c", int.class, "MOT_Y");
-            this.map("d", int.class, "MOT_Z");
-        }
-    },
-    MOVE(PacketPlayOutRelEntityMove.class) {
-        {
-            this.map("a", int.class, PacketRegistry.ENTITY_ID);
-            this.map("b", byte.class, "X");
-            this.map("c", byte.class, "Y");
-            this.map("d", byte.class, "Z");
-        }
-    },
-    MOVELOOK(PacketPlayOutRelEntityMoveLook.class) {
-        {
-            this.map("a", int.class, PacketRegistry.ENTITY_ID);
-            this.map("b", byte.class, "X");
-            this.map("c", byte.class, "Y");
-            this.map("d", byte.class, "Z");
-        }
-    },
-    TELEPORT(PacketPlayOutEntityTeleport.class) {
-        {
-            this.map("a", int.class, PacketRegistry.ENTITY_ID);
-            this.map("b", int.class, "X");
-            this.map("c", int.class, "Y");
-            this.map("d", int.class, "Z");
-        }
-    },
-    ;
-
-    class Getter<T> {
-        private final Field field;
-
-        Getter(Field field) {
-            this.field = field;
-        }
-
-        @SuppressWarnings("unchecked")
-        T get(Object o) {
-            try {
-                return (T) this.field.get(o);
-            } catch (final Exception e) {
-                return null;
-            }
-        }
+/*
+ * A bound packet mapping, see PacketMappings for where they come from. The
+ * set in use gets swapped in whole, lookups never lock.
+ */
+final class PacketRegistry {
+    /*
+     * Everything appends straight into the caller's builder. Nothing in here
+     * should allocate for primitive fields.
+     */
+    abstract static class Output {
+        abstract void append(StringBuilder builder, String name, FieldAccessor accessor, Object packet);
     }
 
-    abstract class Output {
-        final String getOutput(String name, Field field, Object packet) {
-            Object extractedObject;
+    static final class OutputDefault extends Output {
+        @Override
+        void append(StringBuilder builder, String name, FieldAccessor accessor, Object packet) {
+            PacketRegistry.startItem(builder, name);
             try {
-                extractedObject = field.get(packet);
-            } catch (final Exception e) {
-                extractedObject = null;
+                accessor.append(builder, packet);
+            } catch (final RuntimeException e) {
+                builder.append("NULL, ERROR");
             }
-            return this.getOutput(packet, name, extractedObject);
+            PacketRegistry.endItem(builder);
         }
-
-        abstract String getOutput(Object packet, String name, Object extractedObject);
     }
 
-    class OutputDefault extends OutputSingleItem {
+    abstract static class OutputIntItem extends Output {
         @Override
-        public String getOutput(Object packet, Object extractedObject) {
-            return extractedObject.toString();
-        }
-    }
-
-    abstract class OutputMultiItem extends Output {
-        @Override
-        public String getOutput(Object packet, String name, Object extractedObject) {
-            final StringBuilder builder = new StringBuilder();
-            for (final Map.Entry<String, String> entry : this.getItems(packet, extractedObject).entrySet()) {
-                builder.append('"').append(entry.getKey()).append("\": \"");
-                builder.append(entry.getValue()).append("\", ");
+        final void append(StringBuilder builder, String name, FieldAccessor accessor, Object packet) {
+            PacketRegistry.startItem(builder, name);
+            try {
+                final int value = accessor.getInt(packet);
+                final String output = this.getOutput(packet, value);
+                if (output == null) {
+                    builder.append("Unknown(").append(value).append(')');
+                } else {
+                    builder.append(output);
+                }
+            } catch (final RuntimeException e) {
+                builder.append("NULL, ERROR");
             }
-            return builder.toString();
+            PacketRegistry.endItem(builder);
         }
 
-        abstract Map<String, String> getItems(Object packet, Object extractedObject);
+        /*
+         * Null for unknown values.
+         */
+        abstract String getOutput(Object packet, int value);
     }
 
-    abstract class OutputSingleItem extends Output {
+    /*
+     * Writes its own items, as many as it likes, via PacketRegistry.item.
+     */
+    abstract static class OutputIntMultiItem extends Output {
         @Override
-        final String getOutput(Object packet, String name, Object extractedObject) {
-            final StringBuilder builder = new StringBuilder();
-            builder.append('"').append(name).append("\": \"");
-            builder.append(this.getOutput(packet, extractedObject)).append("\", ");
-            return builder.toString();
+        final void append(StringBuilder builder, String name, FieldAccessor accessor, Object packet) {
+            int value;
+            try {
+                value = accessor.getInt(packet);
+            } catch (final RuntimeException e) {
+                PacketRegistry.item(builder, "error", "null values");
+                return;
+            }
+            this.append(builder, packet, value);
         }
 
-        abstract String getOutput(Object packet, Object extractedObject);
+        abstract void append(StringBuilder builder, Object packet, int value);
     }
 
-    class PacketInfo {
+    static final class PacketInfo {
         private final String name;
-        private final Field field;
+        private final FieldAccessor accessor;
         private final Output output;
 
-        PacketInfo(String name, Field field, Output output) {
+        PacketInfo(String name, FieldAccessor accessor, Output output) {
             this.name = name;
-            this.field = field;
+            this.accessor = accessor;
             this.output = output;
         }
 
-        Field getField() {
-            return this.field;
+        FieldAccessor getAccessor() {
+            return this.accessor;
         }
 
         String getName() {
@@ -373,82 +115,159 @@ public enum PacketRegistry {
         }
     }
 
-    private static final String ENTITY_ID = "EntityID";
-    private static Map<Class<? extends Packet>, PacketRegistry> byClass;
-    private static Set<Integer> trackedEntID = new HashSet<Integer>();
+    static final String ENTITY_ID = "EntityID";
+    static final Output DEFAULT_OUTPUT = new OutputDefault();
+    private static volatile ImmutableMap<Class<?>, PacketRegistry> byClass = ImmutableMap.of();
+    private static final ConcurrentIntSet trackedEntID = new ConcurrentIntSet();
+    // Chunks, chat and the like, hidden while tracking unless asked for
+    private static volatile boolean noEntityShown = false;
+
+    static PacketRegistry get(Class<?> clazz) {
+        return PacketRegistry.byClass.get(clazz);
+    }
+
+    static Collection<PacketRegistry> getAll() {
+        return PacketRegistry.byClass.values();
+    }
 
-    static {
-        final Map<Class<? extends Packet>, PacketRegistry> map = new HashMap<>();
-        for (final PacketRegistry registry : PacketRegistry.values()) {
-            map.put(registry.clazz, registry);
+    /*
+     * Replaces whatever was bound before.
+     */
+    static void register(Collection<PacketRegistry> registries) {
+        final ImmutableMap.Builder<Class<?>, PacketRegistry> builder = ImmutableMap.builder();
+        for (final PacketRegistry registry : registries) {
+            builder.put(registry.clazz, registry);
         }
-        PacketRegistry.byClass = ImmutableMap.copyOf(map);
+        PacketRegistry.byClass = builder.build();
     }
 
-    public static String getOutput(Object packet) {
+    /*
+     * Appends the output for the packet, or nothing if it isn't registered.
+     */
+    static boolean appendOutput(StringBuilder builder, Object packet) {
         final PacketRegistry reg = PacketRegistry.byClass.get(packet.getClass());
         if (reg == null) {
-            return "";
+            return false;
         }
-        return reg.output(packet);
+        reg.output(builder, packet);
+        return true;
+    }
+
+    public static String getOutput(Object packet) {
+        final StringBuilder builder = new StringBuilder();
+        PacketRegistry.appendOutput(builder, packet);
+        return builder.toString();
+    }
+
+    static void item(StringBuilder builder, String name, int value) {
+        PacketRegistry.startItem(builder, name);
+        builder.append(value);
+        PacketRegistry.endItem(builder);
+    }
+
+    static void item(StringBuilder builder, String name, String value) {
+        PacketRegistry.startItem(builder, name);
+        builder.append(value);
+        PacketRegistry.endItem(builder);
     }
 
-    static void track(int ID) {
-        PacketRegistry.trackedEntID.add(ID);
+    private static void endItem(StringBuilder builder) {
+        builder.append("\", ");
     }
 
-    static void untrack(int ID) {
-        PacketRegistry.trackedEntID.remove(ID);
+    private static void startItem(StringBuilder builder, String name) {
+        builder.append('"').append(name).append("\": \"");
     }
 
-    private final Class<? extends Packet> clazz;
-    private final List<PacketInfo> mapping = new ArrayList<>();
-    private final Output DEFAULT_OUTPUT = new OutputDefault();
+    static int[] getTracked() {
+        return PacketRegistry.trackedEntID.toArray();
+    }
+
+    static boolean isNoEntityShown() {
+        return PacketRegistry.noEntityShown;
+    }
+
+    /*
+     * With nothing tracked everything is.
+     */
+    static boolean isTracked(int ID) {
+        return PacketRegistry.trackedEntID.isEmpty() || PacketRegistry.trackedEntID.contains(ID);
+    }
+
+    static boolean isTracking() {
+        return !PacketRegistry.trackedEntID.isEmpty();
+    }
+
+    static void setNoEntityShown(boolean shown) {
+        PacketRegistry.noEntityShown = shown;
+    }
 
-    private PacketRegistry(Class<? extends Packet> clazz) {
+    static boolean track(int ID) {
+        return PacketRegistry.trackedEntID.add(ID);
+    }
+
+    static boolean untrack(int ID) {
+        return PacketRegistry.trackedEntID.remove(ID);
+    }
+
+    static void untrackAll() {
+        PacketRegistry.trackedEntID.clear();
+    }
+
+    private final String name;
+    private final Class<?> clazz;
+    private final PacketInfo[] mapping;
+    private final List<PacketInfo> mappingList;
+    private final FieldAccessor[] accessors;
+
+    PacketRegistry(String name, Class<?> clazz, List<PacketInfo> mapping) {
+        this.name = name;
         this.clazz = clazz;
+        this.mapping = mapping.toArray(new PacketInfo[mapping.size()]);
+        this.mappingList = Collections.unmodifiableList(Arrays.asList(this.mapping));
+        this.accessors = new FieldAccessor[this.mapping.length];
+        for (int i = 0; i < this.mapping.length; i++) {
+            this.accessors[i] = this.mapping[i].getAccessor();
+        }
     }
 
-    private String output(Object packet) {
-        final StringBuilder builder = new StringBuilder();
-        builder.append(this.name()).append('{');
-        for (final PacketInfo info : this.mapping) {
-            builder.append(info.getOutputter().getOutput(info.getName(), info.getField(), packet));
+    private void output(StringBuilder builder, Object packet) {
+        this.output(builder, packet, DeltaStore.ALL);
+    }
+
+    /*
+     * Only the mapped fields flagged in changed, indexed as in getMapping.
+     */
+    void output(StringBuilder builder, Object packet, long changed) {
+        builder.append(this.name).append('{');
+        final int start = builder.length();
+        for (int i = 0; i < this.mapping.length; i++) {
+            if ((changed != DeltaStore.ALL) && !DeltaStore.isChanged(changed, i)) {
+                continue;
+            }
+            final PacketInfo info = this.mapping[i];
+            info.getOutputter().append(builder, info.getName(), info.getAccessor(), packet);
         }
-        if (!this.mapping.isEmpty()) {
+        if (builder.length() > start) {
             builder.setLength(builder.length() - 2);
         }
         builder.append('}');
-        return builder.toString();
     }
 
-    protected <T> Getter<T> map(Output output, String fieldName, Class<T> fieldType, String name, Class<?> clazz) {
-        try {
-            final Field field = clazz.getDeclaredField(fieldName);
-            if (!field.getType().equals(fieldType)) {
-                throw new AssertionError("Field " + fieldName + " in " + clazz + " is not type " + fieldType);
-            }
-            field.setAccessible(true);
-            this.mapping.add(new PacketInfo(name, field, output));
-            return new Getter<>(field);
-        } catch (final NoSuchFieldException e) {
-            final Class<?> sup = clazz.getSuperclass();
-            if ((sup == null) || sup.equals(Object.class)) {
-                throw new AssertionError("Could not find field " + fieldName);
-            }
-            return this.map(output, fieldName, fieldType, name, sup);
-        }
+    // Not to be changed
+    FieldAccessor[] getAccessors() {
+        return this.accessors;
     }
 
-    protected <T> Getter<T> map(String fieldName, Class<T> fieldType, String name) {
-        return this.map(fieldName, fieldType, name, this.DEFAULT_OUTPUT);
+    Class<?> getClazz() {
+        return this.clazz;
     }
 
-    protected <T> Getter<T> map(String fieldName, Class<T> fieldType, String name, Output customOutput) {
-        return this.map(customOutput, fieldName, fieldType, name, this.clazz);
+    List<PacketInfo> getMapping() {
+        return this.mappingList;
     }
 
-    Class<? extends Packet> getClazz() {
-        return this.clazz;
+    String getName() {
+        return this.name;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2012-2013 Matt Baxter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitteh.pakkit;
+
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+/*
+ * Decides whether a packet is worth capturing at all. Runs on the event loop
+ * before anything is read off the packet (bar the entity id for
+ * entity-tick), with its state kept per player by the Handler.
+ */
+abstract class PacketSampler {
+    static final class State {
+        private long count;
+        private double tokens;
+        private long lastRefill;
+        private long tick = -1;
+        private IntHashSet entities;
+    }
+
+    private static final class All extends PacketSampler {
+        @Override
+        String describe() {
+            return "all";
+        }
+
+        @Override
+        boolean sample(State state, FieldAccessor entity, Object packet, long tick) {
+            return true;
+        }
+
+        @Override
+        void save(ConfigurationSection conf) {
+            conf.set("sample-mode", "all");
+        }
+    }
+
+    private static final class EntityTick extends PacketSampler {
+        @Override
+        String describe() {
+            return "first per entity per tick";
+        }
+
+        @Override
+        boolean sample(State state, FieldAccessor entity, Object packet, long tick) {
+            if (state.tick != tick) {
+                state.tick = tick;
+                state.count = 0;
+                if (state.entities != null) {
+                    state.entities.clear();
+                }
+            }
+            if (entity == null) {
+                // Nothing to tell entities apart by, so just the first of the tick
+                return state.count++ == 0;
+            }
+            if (state.entities == null) {
+                state.entities = new IntHashSet();
+            }
+            return state.entities.add(entity.getInt(packet));
+        }
+
+        @Override
+        void save(ConfigurationSection conf) {
+            conf.set("sample-mode", "entity-tick");
+        }
+    }
+
+    private static final class OneIn extends PacketSampler {
+        private final int n;
+
+        private OneIn(int n) {
+            this.n = n;
+        }
+
+        @Override
+        String describe() {
+            return "one in " + this.n;
+        }
+
+        @Override
+        boolean sample(State state, FieldAccessor entity, Object packet, long tick) {
+            return (state.count++ % this.n) == 0;
+        }
+
+        @Override
+        void save(ConfigurationSection conf) {
+            conf.set("sample-mode", "one-in");
+            conf.set("sample-n", this.n);
+        }
+    }
+
+    private static final class Rate extends PacketSampler {
+        private final double perSecond;
+        private final double burst;
+
+        private Rate(double perSecond) {
+            this.perSecond = perSecond;
+            this.burst = Math.max(1, perSecond);
+        }
+
+        @Override
+        String describe() {
+            return "at most " + this.perSecond + "/s per player";
+        }
+
+        @Override
+        boolean sample(State state, FieldAccessor entity, Object packet, long tick) {
+            final long now = System.nanoTime();
+            if (state.lastRefill == 0) {
+                state.tokens = this.burst;
+            } else {
+                state.tokens = Math.min(this.burst, state.tokens + (((now - state.lastRefill) * this.perSecond) / PacketSampler.NANOS_PER_SECOND));
+            }
+            state.lastRefill = now;
+            if (state.tokens >= 1) {
+                state.tokens -= 1;
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        void save(ConfigurationSection conf) {
+            conf.set("sample-mode", "rate");
+            conf.set("sample-rate", this.perSecond);
+        }
+    }
+
+    static final PacketSampler ALL = new All();
+    static final String USAGE = "all, one-in <n>, rate <per second> or entity-tick";
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    static PacketSampler load(ConfigurationSection conf) {
+        final String mode = conf.getString("sample-mode", "all");
+        final String value = mode.equalsIgnoreCase("one-in") ? conf.getString("sample-n", "1") : mode.equalsIgnoreCase("rate") ? conf.getString("sample-rate", "1") : null;
+        final PacketSampler sampler = PacketSampler.parse(mode, value);
+        return sampler == null ? PacketSampler.ALL : sampler;
+    }
+
+    /*
+     * Null if the mode or its value doesn't make sense.
+     */
+    static PacketSampler parse(String mode, String value) {
+        try {
+            if (mode.equalsIgnoreCase("all")) {
+                return PacketSampler.ALL;
+            } else if (mode.equalsIgnoreCase("entity-tick")) {
+                return new EntityTick();
+            } else if (mode.equalsIgnoreCase("one-in") && (value != null)) {
+                final int n = Integer.parseInt(value);
+                return n > 1 ? new OneIn(n) : n == 1 ? PacketSampler.ALL : null;
+            } else if (mode.equalsIgnoreCase("rate") && (value != null)) {
+                final double perSecond = Double.parseDouble(value);
+                return perSecond > 0 ? new Rate(perSecond) : null;
+            }
+        } catch (final NumberFormatException e) {
+            return null;
+        }
+        return null;
+    }
+
+    abstract String describe();
+
+    abstract boolean sample(State state, FieldAccessor entity, Object packet, long tick);
+
+    abstract void save(ConfigurationSection conf);
+}
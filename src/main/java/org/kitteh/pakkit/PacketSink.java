@@ -0,0 +1,64 @@
+/*
+ * Copyright 2012-2013 Matt Baxter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitteh.pakkit;
+
+import java.util.UUID;
+
+/*
+ * Somewhere for captured packets to go. Everything here is called from the
+ * pipeline thread: write for each packet, then flush once per batch.
+ */
+abstract class PacketSink {
+    private final String name;
+
+    PacketSink(String name) {
+        this.name = name;
+    }
+
+    void close() {
+    }
+
+    String describe() {
+        return this.name + (this.isBackedUp() ? ": backed up" : ": ok") + ", " + this.getDropped() + " dropped";
+    }
+
+    abstract void flush();
+
+    long getDropped() {
+        return 0;
+    }
+
+    String getName() {
+        return this.name;
+    }
+
+    /*
+     * Whether this would do anything with the packet at all. Called on the
+     * Netty threads, so it had better be cheap.
+     */
+    boolean wants(UUID target, PakkitPacket pak) {
+        return true;
+    }
+
+    /*
+     * True while the last batch couldn't be handed off.
+     */
+    boolean isBackedUp() {
+        return false;
+    }
+
+    abstract void write(CapturedPacket captured);
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2012-2013 Matt Baxter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitteh.pakkit;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/*
+ * Counting lives on the PakkitPacket (per type) and in here per player. The
+ * per player ones are only ever bumped from that player's event loop, so
+ * they get a single stripe.
+ */
+final class PacketStats implements Runnable {
+    private static final int TOP_WINDOW = 10;
+    private static final int TOP_SIZE = 32;
+    // Ten seconds worth
+    private static final int TICK_HISTORY = 200;
+
+    private final Pakkit pakkit;
+    private final ConcurrentMap<UUID, PacketCounter> players = new ConcurrentHashMap<>();
+    private final ConcurrentMap<UUID, TickHistory> tickHistories = new ConcurrentHashMap<>();
+    // Outbound, the same size however many players are on
+    private final HeavyHitters<UUID> topPackets = new HeavyHitters<>(PacketStats.TOP_WINDOW, PacketStats.TOP_SIZE, StripedCounter.DEFAULT_STRIPES);
+    private final HeavyHitters<UUID> topBytes = new HeavyHitters<>(PacketStats.TOP_WINDOW, PacketStats.TOP_SIZE, StripedCounter.DEFAULT_STRIPES);
+    private volatile boolean enabled;
+
+    PacketStats(Pakkit pakkit, boolean enabled) {
+        this.pakkit = pakkit;
+        this.enabled = enabled;
+    }
+
+    void addTop(UUID uuid, int size) {
+        this.topPackets.add(uuid, 1);
+        if (size > 0) {
+            this.topBytes.add(uuid, size);
+        }
+    }
+
+    void addTopBytes(UUID uuid, int size) {
+        this.topBytes.add(uuid, size);
+    }
+
+    PacketCounter getPlayer(UUID uuid) {
+        final PacketCounter counter = this.players.get(uuid);
+        if (counter != null) {
+            return counter;
+        }
+        final PacketCounter created = new PacketCounter(1);
+        final PacketCounter existing = this.players.putIfAbsent(uuid, created);
+        return existing == null ? created : existing;
+    }
+
+    TickHistory getTickHistory(UUID uuid) {
+        final TickHistory history = this.tickHistories.get(uuid);
+        if (history != null) {
+            return history;
+        }
+        final TickHistory created = new TickHistory(PacketStats.TICK_HISTORY);
+        final TickHistory existing = this.tickHistories.putIfAbsent(uuid, created);
+        return existing == null ? created : existing;
+    }
+
+    Map<UUID, TickHistory> getTickHistories() {
+        return this.tickHistories;
+    }
+
+    Map<UUID, PacketCounter> getPlayers() {
+        return this.players;
+    }
+
+    HeavyHitters<UUID> getTopBytes() {
+        return this.topBytes;
+    }
+
+    HeavyHitters<UUID> getTopPackets() {
+        return this.topPackets;
+    }
+
+    boolean isEnabled() {
+        return this.enabled;
+    }
+
+    void remove(UUID uuid) {
+        this.players.remove(uuid);
+        this.tickHistories.remove(uuid);
+    }
+
+    @Override
+    public void run() {
+        if (!this.enabled) {
+            return;
+        }
+        for (final PakkitPacket packet : this.pakkit.getPackets()) {
+            packet.getCounter().sample();
+        }
+        for (final PacketCounter counter : this.players.values()) {
+            counter.sample();
+        }
+        this.topPackets.rotate();
+        this.topBytes.rotate();
+    }
+
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+}
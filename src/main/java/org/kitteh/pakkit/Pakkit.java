@@ -15,20 +15,36 @@
  */
 package org.kitteh.pakkit;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.NoSuchElementException;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import net.minecraft.util.io.netty.channel.Channel;
+import net.minecraft.util.io.netty.channel.ChannelDuplexHandler;
 import net.minecraft.util.io.netty.channel.ChannelHandlerContext;
-import net.minecraft.util.io.netty.channel.ChannelOutboundHandlerAdapter;
+import net.minecraft.util.io.netty.channel.ChannelPipeline;
 import net.minecraft.util.io.netty.channel.ChannelPromise;
 
 import org.bukkit.configuration.ConfigurationSection;
@@ -36,6 +52,8 @@ import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.scheduler.BukkitTask;
 
 /*
  * Because I am only performing inspection and not modifying anything (except
@@ -44,60 +62,237 @@ import org.bukkit.event.player.PlayerJoinEvent;
  * HORRIBLE IDEA and you shouldn't use this code as an example.
  */
 public class Pakkit implements Listener {
-    public class Handler extends ChannelOutboundHandlerAdapter {
-        private final Player player;
+    public class Handler extends ChannelDuplexHandler {
+        // The channel can outlive the Player object, don't keep it around
+        private final WeakReference<Player> player;
+        private final UUID uuid;
+        // Both null until stats are on, only the event loop touches them
+        private PacketCounter counter;
+        private TickHistory tickHistory;
+        private final WireCounts wireCounts;
+        // Null unless wire sizes are on, or if it couldn't go in
+        private WireTap tap;
+        private PacketSampler.State[] sampleStates = new PacketSampler.State[64];
+        private int writes;
 
         private Handler(Player player) {
-            this.player = player;
+            this.player = new WeakReference<>(player);
+            this.uuid = player.getUniqueId();
+            this.wireCounts = Pakkit.this.wire ? Pakkit.this.getWireCounts(this.uuid) : null;
+            this.tap = this.wireCounts == null ? null : new WireTap();
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object packet) throws Exception {
+            final boolean counting = Pakkit.this.stats.isEnabled();
+            final WireTap tap = this.tap;
+            if (Pakkit.this.inbound || counting || (tap != null)) {
+                final PakkitPacket pak = Pakkit.this.lookup.get(packet.getClass());
+                if (counting) {
+                    // The tap adds the real size
+                    pak.getCounter().add(tap == null ? pak.getEstimatedSize() : 0);
+                }
+                if (tap != null) {
+                    // The frame the decoder just turned into this packet
+                    final int bytes = tap.takeRead();
+                    if (bytes >= 0) {
+                        this.wireCounts.add(pak.getId(), bytes);
+                        if (counting) {
+                            pak.getCounter().addBytes(bytes);
+                        }
+                    }
+                }
+                if (Pakkit.this.inbound && (Pakkit.this.isWanted(this.uuid, pak) || (Pakkit.this.recorder != null)) && Pakkit.isTracked(pak, packet) && this.sample(pak, packet)) {
+                    this.handlePacket(pak, packet);
+                }
+            }
+            super.channelRead(ctx, packet);
         }
 
         @Override
         public void write(ChannelHandlerContext ctx, Object packet, ChannelPromise promise) throws Exception {
-            Pakkit.this.handlePacket(this.player, packet);
+            final boolean counting = Pakkit.this.stats.isEnabled();
+            final WireTap tap = this.tap;
+            final boolean tracing = Pakkit.this.latency && ((++this.writes % Pakkit.this.latencySample) == 0) && !promise.isVoid();
+            if (Pakkit.this.outbound || counting || (tap != null) || tracing) {
+                final PakkitPacket pak = Pakkit.this.lookup.get(packet.getClass());
+                final LatencyHistogram histogram = tracing ? pak.getLatency() : null;
+                if (histogram != null) {
+                    // Done once it's been flushed out to the socket
+                    promise.addListener(new LatencyHistogram.Trace(histogram, System.nanoTime()));
+                }
+                final long tick = counting ? Pakkit.this.ticks.get() : 0;
+                if (counting) {
+                    if (this.counter == null) {
+                        this.counter = Pakkit.this.stats.getPlayer(this.uuid);
+                        this.tickHistory = Pakkit.this.stats.getTickHistory(this.uuid);
+                    }
+                    // The tap has the real size once it's encoded
+                    final int size = tap == null ? pak.getEstimatedSize() : 0;
+                    pak.getCounter().add(size);
+                    this.counter.add(size);
+                    this.tickHistory.add(tick, pak.getId(), size);
+                    Pakkit.this.stats.addTop(this.uuid, size);
+                }
+                if (Pakkit.this.outbound && (Pakkit.this.isWanted(this.uuid, pak) || (Pakkit.this.recorder != null)) && Pakkit.isTracked(pak, packet) && this.sample(pak, packet)) {
+                    this.handlePacket(pak, packet);
+                }
+                if (tap != null) {
+                    // The encoder runs inside this call
+                    tap.setWriting(true);
+                    try {
+                        super.write(ctx, packet, promise);
+                    } finally {
+                        tap.setWriting(false);
+                    }
+                    final int bytes = tap.takeWritten();
+                    if (bytes >= 0) {
+                        this.wireCounts.add(pak.getId(), bytes);
+                        if (counting) {
+                            pak.getCounter().addBytes(bytes);
+                            this.counter.addBytes(bytes);
+                            this.tickHistory.addBytes(tick, bytes);
+                            Pakkit.this.stats.addTopBytes(this.uuid, bytes);
+                        }
+                    }
+                    return;
+                }
+            }
             super.write(ctx, packet, promise);
         }
+
+        private void handlePacket(PakkitPacket pak, Object packet) {
+            final Player player = this.player.get();
+            if (player != null) {
+                Pakkit.this.handlePacket(player, pak, packet);
+            }
+        }
+
+        // Only ever called from this channel's event loop
+        private boolean sample(PakkitPacket pak, Object packet) {
+            final PacketSampler sampler = pak.getSampler();
+            if (sampler == PacketSampler.ALL) {
+                return true;
+            }
+            final int id = pak.getId();
+            if (id >= this.sampleStates.length) {
+                this.sampleStates = Arrays.copyOf(this.sampleStates, Math.max(id + 1, this.sampleStates.length * 2));
+            }
+            PacketSampler.State state = this.sampleStates[id];
+            if (state == null) {
+                state = new PacketSampler.State();
+                this.sampleStates[id] = state;
+            }
+            return sampler.sample(state, pak.getEntityAccessor(), packet, Pakkit.this.ticks.get());
+        }
     }
 
-    private Class<?> craftPlayer;
-    private Method getHandle;
-    private Class<?> entityPlayerClass;
+    private static final String HANDLER_NAME = "pakkit";
+    private static final int MAX_SEGMENT_MEGABYTES = 2047;
+    // Minecraft's own handler, sits after the codec. Inbound packets stop there.
+    private static final String PACKET_HANDLER = "packet_handler";
+
     private final Plugin plugin;
-    private Field playerConnectionField;
-    private Class<?> playerConnectionClass;
-    private Field networkManagerField;
-    private Class<?> networkManagerClass;
+    private final Logger logger;
+    // Player to each of its NetworkManager's Channels, resolved once up front
+    private final List<MethodHandle> channelGetters = new ArrayList<>();
+    // Where our handlers are, so they can come out again
+    private final ConcurrentMap<UUID, List<Channel>> injected = new ConcurrentHashMap<>();
+    private Class<?> packetClass;
+    private final PacketIndex index = new PacketIndex();
+
+    private final ConcurrentMap<Class<?>, PakkitPacket> packets = new ConcurrentHashMap<>();
+    private final ClassValue<PakkitPacket> lookup = new ClassValue<PakkitPacket>() {
+        @Override
+        protected PakkitPacket computeValue(Class<?> type) {
+            final PakkitPacket pak = Pakkit.this.getOrCreate(type);
+            pak.scan();
+            return pak;
+        }
+    };
 
-    private final Set<Field> channelFields = new HashSet<>();
+    private PacketPipeline pipeline;
+    private ConfigPersister persister;
+    private final Map<String, PacketSink> sinks = new LinkedHashMap<>();
+    private final Subscriptions subscriptions = new Subscriptions();
+    private volatile PacketSink[] defaultSinks;
+    private final PacketStats stats = new PacketStats(this, false);
+    private final ConcurrentMap<UUID, WireCounts> wireCounts = new ConcurrentHashMap<>();
+    private volatile boolean wire;
+    private volatile boolean latency;
+    // Trace one in this many writes per player
+    private volatile int latencySample = 1;
+    private BukkitTask statsTask;
+    private final TickCounter ticks = new TickCounter();
+    private BukkitTask tickTask;
+    private volatile PacketRecorder recorder;
+    private volatile boolean inbound;
+    private volatile boolean outbound;
 
-    private final Map<Class<?>, PakkitPacket> packets = new ConcurrentHashMap<>();
+    /*
+     * No server behind this one, just the packet path. For the benchmarks.
+     */
+    Pakkit(Logger logger) {
+        this.plugin = null;
+        this.logger = logger;
+        this.outbound = true;
+        this.addSink(new ChatSink(this, this.subscriptions));
+        this.defaultSinks = new PacketSink[] { this.sinks.get(ChatSink.NAME) };
+        this.pipeline = new PacketPipeline(this, 8192, PacketPipeline.FullPolicy.DROP, 0, 256);
+    }
 
     Pakkit(Plugin plugin) {
         this.plugin = plugin;
+        this.logger = plugin.getLogger();
+        AccessorGenerator.setLogger(this.logger);
         final String serverPackage = this.plugin.getServer().getClass().getPackage().getName();
         final String version = serverPackage.substring(serverPackage.lastIndexOf('.') + 1);
+        String nmsPackage;
         try {
-            this.craftPlayer = Class.forName(serverPackage + ".entity.CraftPlayer");
-            this.getHandle = this.craftPlayer.getMethod("getHandle");
-            this.entityPlayerClass = this.getHandle.getReturnType();
-            this.playerConnectionField = this.entityPlayerClass.getField("playerConnection");
-            this.playerConnectionField.setAccessible(true);
-            this.playerConnectionClass = this.playerConnectionField.getType();
-            this.networkManagerField = this.playerConnectionClass.getField("networkManager");
-            this.networkManagerField.setAccessible(true);
-            this.networkManagerClass = this.networkManagerField.getType();
-            for (final Field field : this.networkManagerClass.getDeclaredFields()) {
+            final Class<?> craftPlayer = Class.forName(serverPackage + ".entity.CraftPlayer");
+            final Method getHandle = craftPlayer.getMethod("getHandle");
+            final Field playerConnectionField = getHandle.getReturnType().getField("playerConnection");
+            final Field networkManagerField = playerConnectionField.getType().getField("networkManager");
+            final MethodHandles.Lookup lookup = MethodHandles.lookup();
+            // CraftPlayer.getHandle().playerConnection.networkManager, as one handle
+            MethodHandle networkManager = lookup.unreflect(getHandle);
+            networkManager = MethodHandles.filterReturnValue(networkManager, lookup.unreflectGetter(playerConnectionField));
+            networkManager = MethodHandles.filterReturnValue(networkManager, lookup.unreflectGetter(networkManagerField));
+            for (final Field field : networkManagerField.getType().getDeclaredFields()) {
                 if (field.getType().equals(Channel.class)) {
-                    this.channelFields.add(field);
                     field.setAccessible(true);
+                    final MethodHandle channel = MethodHandles.filterReturnValue(networkManager, lookup.unreflectGetter(field));
+                    this.channelGetters.add(channel.asType(MethodType.methodType(Channel.class, Player.class)));
                 }
             }
-            if (this.channelFields.isEmpty()) {
+            if (this.channelGetters.isEmpty()) {
                 throw new Exception("NO CHANNELS IN NETWORK MANAGER OMG");
             }
+            nmsPackage = getHandle.getReturnType().getPackage().getName();
         } catch (final Exception e) {
             plugin.getLogger().log(Level.SEVERE, "Could not start, unknown stuffs", e);
             return;
         }
+        try {
+            this.packetClass = Class.forName(nmsPackage + ".Packet");
+            this.index.addAll(PacketDiscovery.discover(this.packetClass));
+        } catch (final ClassNotFoundException | IOException e) {
+            plugin.getLogger().log(Level.WARNING, "Could not look for packets, only configured ones are available", e);
+        }
+        PacketRegistry.register(PacketMappings.load(plugin, version, nmsPackage));
+        this.inbound = plugin.getConfig().getBoolean("inbound", false);
+        this.outbound = plugin.getConfig().getBoolean("outbound", true);
+        this.stats.setEnabled(plugin.getConfig().getBoolean("stats", false));
+        this.wire = plugin.getConfig().getBoolean("wire-sizes", false);
+        this.latencySample = Math.max(1, plugin.getConfig().getInt("latency-sample", 1));
+        final int sinkQueue = Math.max(1, plugin.getConfig().getInt("sink-queue-size", 64));
+        this.addSink(new ChatSink(this, this.subscriptions));
+        this.addSink(new JsonSink(this.sinkFile(plugin.getConfig().getString("sink-json-file", "packets.jsonl")), this.logger, sinkQueue));
+        this.addSink(new BinarySink(this.sinkFile(plugin.getConfig().getString("sink-binary-file", "packets.bin")), this.logger, sinkQueue));
+        this.defaultSinks = this.loadSinks(plugin.getConfig().getStringList("sinks-default"), "sinks-default");
+        if (this.defaultSinks == null) {
+            this.defaultSinks = new PacketSink[] { this.sinks.get(ChatSink.NAME) };
+        }
         for (final Map.Entry<String, Object> entry : plugin.getConfig().getValues(false).entrySet()) {
             if (entry.getValue() instanceof ConfigurationSection) {
                 Class<?> clazz;
@@ -108,9 +303,27 @@ public class Pakkit implements Listener {
                     continue;
                 }
                 final ConfigurationSection pac = (ConfigurationSection) entry.getValue();
-                this.packets.put(clazz, new PakkitPacket(clazz, pac.getBoolean("enabled", false), pac.getBoolean("full", true)));
+                final PakkitPacket pak = new PakkitPacket(clazz, pac.getBoolean("enabled", false), pac.getBoolean("full", true));
+                pak.setSampler(PacketSampler.load(pac));
+                pak.setDelta(pac.getBoolean("delta", false));
+                pak.setSinks(this.loadSinks(pac.getStringList("sinks"), entry.getKey()));
+                this.packets.put(clazz, pak);
+                this.index.add(pak);
             }
         }
+        for (final PacketRegistry registry : PacketRegistry.getAll()) {
+            this.getOrCreate(registry.getClazz());
+        }
+        this.setLatency(plugin.getConfig().getBoolean("latency", false));
+        PacketPipeline.FullPolicy policy = PacketPipeline.FullPolicy.match(plugin.getConfig().getString("queue-full", "drop"));
+        if (policy == null) {
+            plugin.getLogger().warning("Unknown queue-full policy, dropping instead");
+            policy = PacketPipeline.FullPolicy.DROP;
+        }
+        this.pipeline = new PacketPipeline(this, Math.max(1, plugin.getConfig().getInt("queue-size", 8192)), policy, Math.max(0, plugin.getConfig().getInt("queue-block-millis", 50)), Math.max(1, plugin.getConfig().getInt("queue-batch", 256)));
+        this.persister = new ConfigPersister(this, new File(plugin.getDataFolder(), "config.yml"), plugin.getConfig().saveToString(), TimeUnit.SECONDS.toMillis(Math.max(0, plugin.getConfig().getInt("save-delay", 2))), TimeUnit.SECONDS.toMillis(Math.max(1, plugin.getConfig().getInt("save-max-delay", 10))));
+        this.statsTask = plugin.getServer().getScheduler().runTaskTimerAsynchronously(plugin, this.stats, 20, 20);
+        this.tickTask = plugin.getServer().getScheduler().runTaskTimer(plugin, this.ticks, 1, 1);
         plugin.getCommand("pakkit").setExecutor(new Command(this));
         plugin.getServer().getPluginManager().registerEvents(this, plugin);
         for (final Player player : plugin.getServer().getOnlinePlayers()) {
@@ -123,76 +336,478 @@ public class Pakkit implements Listener {
         this.inject(event.getPlayer());
     }
 
-    private void handlePacket(Player player, Object packet) {
-        player.sendMessage(PacketRegistry.getOutput(packet));
-        /*final Class<?> clazz = packet.getClass();
-        PakkitPacket pak = this.packets.get(clazz);
-        if (pak == null) {
-            pak = new PakkitPacket(clazz);
-            this.packets.put(clazz, pak);
+    @EventHandler
+    public void quit(PlayerQuitEvent event) {
+        this.uninject(event.getPlayer().getUniqueId());
+        this.subscriptions.unsubscribeAll(event.getPlayer());
+        this.stats.remove(event.getPlayer().getUniqueId());
+        this.wireCounts.remove(event.getPlayer().getUniqueId());
+    }
+
+    void record(CapturedPacket captured) {
+        final PacketRecorder rec = this.recorder;
+        if (rec == null) {
+            return;
         }
-        final String output = pak.print(packet);
-        if ((output != null) && (output.length() > 1)) {
-            if (clazz.getSimpleName().toLowerCase().contains("chat") && output.substring(1).contains(clazz.getSimpleName() + "{")) {
-                return;
+        try {
+            rec.write(captured);
+        } catch (final IOException e) {
+            this.plugin.getLogger().log(Level.WARNING, "Could not record to " + rec.getDirectory() + ", stopping", e);
+            try {
+                this.stopRecording();
+            } catch (final IOException ignored) {
             }
-            this.plugin.getServer().broadcastMessage(player.getName() + ": " + output);
-        }*/
+        }
+    }
+
+    synchronized File startRecording() throws IOException {
+        if (this.recorder != null) {
+            return null;
+        }
+        final File directory = new File(new File(this.plugin.getDataFolder(), "recordings"), new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()));
+        int segmentMegabytes = Math.max(1, this.plugin.getConfig().getInt("record-segment-size", 64));
+        if (segmentMegabytes > Pakkit.MAX_SEGMENT_MEGABYTES) {
+            // One mapping can't pass Integer.MAX_VALUE bytes
+            this.plugin.getLogger().warning("record-segment-size of " + segmentMegabytes + " is too large, using " + Pakkit.MAX_SEGMENT_MEGABYTES);
+            segmentMegabytes = Pakkit.MAX_SEGMENT_MEGABYTES;
+        }
+        final int segmentSize = segmentMegabytes << 20;
+        final long segmentAge = TimeUnit.SECONDS.toMillis(Math.max(1, this.plugin.getConfig().getInt("record-segment-age", 300)));
+        this.recorder = new PacketRecorder(directory, segmentSize, segmentAge);
+        return directory;
     }
 
+    synchronized File stopRecording() throws IOException {
+        final PacketRecorder rec = this.recorder;
+        if (rec == null) {
+            return null;
+        }
+        this.recorder = null;
+        rec.close();
+        return rec.getDirectory();
+    }
+
+    /*
+     * Appends the line for this packet. False, with the builder untouched, if
+     * there's nothing to show.
+     */
+    boolean format(CapturedPacket captured, StringBuilder builder) {
+        final PakkitPacket pak = captured.getPakkitPacket();
+        if (!pak.isEnabled()) {
+            return false;
+        }
+        final Object packet = captured.getPacket();
+        final PacketRegistry registry = PacketRegistry.get(packet.getClass());
+        if (registry != null) {
+            // Deltas too, the pipeline works those out against the same mapping
+            if (captured.getRegistryChanged() == 0) {
+                return false;
+            }
+            registry.output(builder, packet, captured.getRegistryChanged());
+            return true;
+        }
+        final int start = builder.length();
+        if (!pak.print(builder, packet, captured.getChanged())) {
+            return false;
+        }
+        // Our own output comes back through here as chat, don't print it again
+        if (pak.isChat() && (builder.indexOf(pak.getPacketClass().getSimpleName() + "{", start + 1) >= 0)) {
+            builder.setLength(start);
+            return false;
+        }
+        return true;
+    }
+
+    PacketSink[] getDefaultSinks() {
+        return this.defaultSinks;
+    }
+
+    PacketSink getSink(String name) {
+        return this.sinks.get(name.toLowerCase());
+    }
+
+    Collection<PacketSink> getSinks() {
+        return this.sinks.values();
+    }
+
+    PacketSink[] getSinks(PakkitPacket pak) {
+        final PacketSink[] sinks = pak.getSinks();
+        return sinks == null ? this.defaultSinks : sinks;
+    }
+
+    /*
+     * Null if any name is unknown. "none" alone gives no sinks at all.
+     */
+    PacketSink[] getSinks(List<String> names) {
+        if ((names.size() == 1) && names.get(0).equalsIgnoreCase("none")) {
+            return new PacketSink[0];
+        }
+        final PacketSink[] found = new PacketSink[names.size()];
+        for (int i = 0; i < found.length; i++) {
+            found[i] = this.getSink(names.get(i));
+            if (found[i] == null) {
+                return null;
+            }
+        }
+        return found;
+    }
+
+    void setDefaultSinks(PacketSink[] sinks) {
+        this.defaultSinks = sinks;
+    }
+
+    Handler createHandler(Player player) {
+        return new Handler(player);
+    }
+
+    Logger getLogger() {
+        return this.logger;
+    }
+
+    private void addSink(PacketSink sink) {
+        this.sinks.put(sink.getName(), sink);
+    }
+
+    private PacketSink[] loadSinks(List<String> names, String where) {
+        if (names.isEmpty()) {
+            return null;
+        }
+        final PacketSink[] loaded = this.getSinks(names);
+        if (loaded == null) {
+            this.logger.warning("Unknown sink in " + names + " for " + where + ", using the defaults");
+        }
+        return loaded;
+    }
+
+    private File sinkFile(String name) {
+        final File file = new File(name);
+        return file.isAbsolute() ? file : new File(this.plugin.getDataFolder(), name);
+    }
+
+    private PakkitPacket getOrCreate(Class<?> clazz) {
+        final PakkitPacket pak = this.packets.get(clazz);
+        if (pak != null) {
+            return pak;
+        }
+        final PakkitPacket created = new PakkitPacket(clazz);
+        final PakkitPacket existing = this.packets.putIfAbsent(clazz, created);
+        if (existing != null) {
+            return existing;
+        }
+        if (this.latency) {
+            created.createLatency();
+        }
+        this.index.add(created);
+        return created;
+    }
+
+    private void handlePacket(Player player, PakkitPacket pak, Object packet) {
+        this.pipeline.submit(player, pak, packet, this.ticks.get());
+    }
+
+    /*
+     * Only the field reads happen here, the pipeline changes are done by
+     * each channel's own event loop.
+     */
     private void inject(Player player) {
-        boolean injected = false;
-        if (player.getClass().isAssignableFrom(this.craftPlayer)) {
-            try {
-                final Object entPlayer = this.getHandle.invoke(player);
-                if (entPlayer.getClass().isAssignableFrom(this.entityPlayerClass)) {
-                    final Object playerConnection = this.playerConnectionField.get(entPlayer);
-                    if (playerConnection.getClass().isAssignableFrom(this.playerConnectionClass)) {
-                        final Object networkManager = this.networkManagerField.get(playerConnection);
-                        if (networkManager.getClass().isAssignableFrom(this.networkManagerClass)) {
-                            final Handler handler = new Handler(player);
-                            for (final Field field : this.channelFields) {
-                                final Channel channel = (Channel) field.get(networkManager);
-                                channel.pipeline().addLast(handler);
-                                injected = true;
-                            }
-                        }
-                    }
+        final List<Channel> channels = new ArrayList<>(this.channelGetters.size());
+        try {
+            for (final MethodHandle getter : this.channelGetters) {
+                final Channel channel = (Channel) getter.invokeExact(player);
+                if (channel != null) {
+                    channels.add(channel);
                 }
-            } catch (final Exception e) {
-                this.plugin.getLogger().log(Level.WARNING, "Could not inject player " + player, e);
             }
+        } catch (final Throwable t) {
+            if (t instanceof Error) {
+                throw (Error) t;
+            }
+            this.logger.log(Level.WARNING, "Could not inject player " + player, t);
         }
-        if (!injected) {
+        if (channels.isEmpty()) {
             player.sendMessage("I could not hax ur pakkits");
+            return;
+        }
+        for (final Channel channel : channels) {
+            final Handler handler = new Handler(player);
+            final String name = player.getName();
+            this.onEventLoop(channel, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Pakkit.inject(channel, handler);
+                    } catch (final RuntimeException e) {
+                        Pakkit.this.logger.log(Level.WARNING, "Could not inject player " + name, e);
+                    }
+                }
+            });
+        }
+        this.injected.put(player.getUniqueId(), channels);
+    }
+
+    /*
+     * Swaps in place if there's already one of ours there, say from before a
+     * reload, so there's never more than one.
+     */
+    private static void inject(Channel channel, Handler handler) {
+        final ChannelPipeline pipeline = channel.pipeline();
+        if (pipeline.get(Pakkit.HANDLER_NAME) != null) {
+            pipeline.replace(Pakkit.HANDLER_NAME, Pakkit.HANDLER_NAME, handler);
+        } else if (pipeline.get(Pakkit.PACKET_HANDLER) != null) {
+            pipeline.addBefore(Pakkit.PACKET_HANDLER, Pakkit.HANDLER_NAME, handler);
+        } else {
+            pipeline.addLast(Pakkit.HANDLER_NAME, handler);
+        }
+        if (handler.tap == null) {
+            WireTap.removeFrom(pipeline);
+        } else if (!handler.tap.addTo(pipeline)) {
+            handler.tap = null;
+        }
+    }
+
+    private static void uninject(Channel channel) {
+        try {
+            if (channel.pipeline().get(Pakkit.HANDLER_NAME) != null) {
+                channel.pipeline().remove(Pakkit.HANDLER_NAME);
+            }
+            WireTap.removeFrom(channel.pipeline());
+        } catch (final NoSuchElementException e) {
+            // Channel closing got there first
+        }
+    }
+
+    /*
+     * Runs in order with everything else on the channel. Straight away if
+     * the loop is already gone, there's nobody left to race with then.
+     */
+    private void onEventLoop(Channel channel, Runnable task) {
+        if (channel.eventLoop().inEventLoop()) {
+            task.run();
+            return;
+        }
+        try {
+            channel.eventLoop().execute(task);
+        } catch (final RejectedExecutionException e) {
+            task.run();
         }
     }
 
+    private void uninject(UUID uuid) {
+        final List<Channel> channels = this.injected.remove(uuid);
+        if (channels == null) {
+            return;
+        }
+        for (final Channel channel : channels) {
+            this.onEventLoop(channel, new Runnable() {
+                @Override
+                public void run() {
+                    Pakkit.uninject(channel);
+                }
+            });
+        }
+    }
+
+    /*
+     * Outbound packets go by their name minus PacketPlayOut, inbound ones
+     * keep the In, so PacketPlayInFlying is InFlying.
+     */
+    PakkitPacket getPacket(Class<?> clazz) {
+        return this.lookup.get(clazz);
+    }
+
     PakkitPacket getPacket(String string) {
-        if (!string.startsWith("Packet")) {
-            string = "PacketPlayOut" + string;
+        final PacketIndex.Entry entry = this.index.get(string);
+        if (entry == null) {
+            return null;
         }
-        for (final Map.Entry<Class<?>, PakkitPacket> entry : this.packets.entrySet()) {
-            if (entry.getKey().getSimpleName().equalsIgnoreCase(string)) {
-                return entry.getValue();
+        final PakkitPacket pak = entry.getPacket();
+        if (pak != null) {
+            return pak;
+        }
+        final Class<?> clazz = PacketDiscovery.load(this.packetClass, entry.getClassName());
+        return clazz == null ? null : this.getOrCreate(clazz);
+    }
+
+    List<String> getPacketNames(String prefix) {
+        return this.index.complete(prefix);
+    }
+
+    Collection<PakkitPacket> getPackets() {
+        return this.packets.values();
+    }
+
+    PacketRecorder getRecorder() {
+        return this.recorder;
+    }
+
+    Subscriptions getSubscriptions() {
+        return this.subscriptions;
+    }
+
+    PacketStats getStats() {
+        return this.stats;
+    }
+
+    long getTick() {
+        return this.ticks.get();
+    }
+
+    WireCounts getWireCounts(UUID uuid) {
+        final WireCounts counts = this.wireCounts.get(uuid);
+        if (counts != null) {
+            return counts;
+        }
+        final WireCounts created = new WireCounts();
+        final WireCounts existing = this.wireCounts.putIfAbsent(uuid, created);
+        return existing == null ? created : existing;
+    }
+
+    Map<UUID, WireCounts> getWireCounts() {
+        return this.wireCounts;
+    }
+
+    int getLatencySample() {
+        return this.latencySample;
+    }
+
+    boolean isLatency() {
+        return this.latency;
+    }
+
+    boolean isWire() {
+        return this.wire;
+    }
+
+    /*
+     * Histograms are made here so the event loop only ever reads them.
+     */
+    void setLatency(boolean latency) {
+        // Flag first, getOrCreate checks it after adding
+        this.latency = latency;
+        if (latency) {
+            for (final PakkitPacket packet : this.packets.values()) {
+                packet.createLatency();
             }
         }
-        return null;
     }
 
-    List<String> getPacketNames() {
-        final List<String> names = new ArrayList<>();
-        for (final Class<?> clazz : this.packets.keySet()) {
-            names.add(clazz.getSimpleName().startsWith("PacketPlayOut") ? clazz.getSimpleName().substring("PacketPlayOut".length()) : clazz.getSimpleName());
+    /*
+     * Fresh handlers for everyone, which brings the taps in or takes them out.
+     */
+    void setWire(boolean wire) {
+        this.wire = wire;
+        for (final Player player : this.plugin.getServer().getOnlinePlayers()) {
+            this.inject(player);
+        }
+    }
+
+    void setEnabled(PakkitPacket.Direction direction, boolean enabled) {
+        if (direction == PakkitPacket.Direction.INBOUND) {
+            this.inbound = enabled;
+        } else {
+            this.outbound = enabled;
+        }
+    }
+
+    void shutdown() {
+        for (final UUID uuid : this.injected.keySet()) {
+            this.uninject(uuid);
+        }
+        if (this.statsTask != null) {
+            this.statsTask.cancel();
+        }
+        if (this.tickTask != null) {
+            this.tickTask.cancel();
+        }
+        if (this.pipeline != null) {
+            this.pipeline.shutdown();
+        }
+        for (final PacketSink sink : this.sinks.values()) {
+            sink.close();
+        }
+        if (this.persister != null) {
+            this.persister.shutdown();
+        }
+        try {
+            this.stopRecording();
+        } catch (final IOException e) {
+            this.plugin.getLogger().log(Level.WARNING, "Could not finish recording", e);
+        }
+    }
+
+    static List<String> getSinkNames(PacketSink[] sinks) {
+        if (sinks.length == 0) {
+            return Collections.singletonList("none");
+        }
+        final List<String> names = new ArrayList<>(sinks.length);
+        for (final PacketSink sink : sinks) {
+            names.add(sink.getName());
         }
-        Collections.sort(names);
         return names;
     }
 
+    static String getName(Class<?> clazz) {
+        return Pakkit.getName(clazz.getSimpleName());
+    }
+
+    static String getName(String name) {
+        if (name.startsWith("PacketPlayOut")) {
+            return name.substring("PacketPlayOut".length());
+        } else if (name.startsWith("PacketPlayIn")) {
+            return name.substring("PacketPlay".length());
+        }
+        return name;
+    }
+
+    /*
+     * Enabled, and at least one of its sinks would actually use it. With
+     * nobody watching a player this is where their packets stop.
+     */
+    private boolean isWanted(UUID target, PakkitPacket pak) {
+        if (!pak.isEnabled()) {
+            return false;
+        }
+        for (final PacketSink sink : this.getSinks(pak)) {
+            if (sink.wants(target, pak)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isTracked(PakkitPacket pak, Object packet) {
+        // Untracked is the usual case, no need to read the ID then
+        if (!PacketRegistry.isTracking()) {
+            return true;
+        }
+        final FieldAccessor entity = pak.getEntityAccessor();
+        if (entity == null) {
+            return PacketRegistry.isNoEntityShown();
+        }
+        return PacketRegistry.isTracked(entity.getInt(packet));
+    }
+
+    /*
+     * Saving is queued up and done later, off the main thread.
+     */
     void save() {
-        for (final Map.Entry<Class<?>, PakkitPacket> entry : this.packets.entrySet()) {
-            entry.getValue().save(this.plugin.getConfig().createSection(entry.getKey().getSimpleName()));
+        if (this.persister != null) {
+            this.persister.markDirty();
         }
-        this.plugin.saveConfig();
+    }
+
+    void save(PakkitPacket packet) {
+        if (this.persister != null) {
+            this.persister.markDirty(packet);
+        }
+    }
+
+    void saveSettings(ConfigurationSection config) {
+        config.set("stats", this.stats.isEnabled());
+        config.set("wire-sizes", this.wire);
+        config.set("latency", this.latency);
+        config.set("inbound", this.inbound);
+        config.set("outbound", this.outbound);
+        config.set("sinks-default", Pakkit.getSinkNames(this.defaultSinks));
     }
 }
\ No newline at end of file
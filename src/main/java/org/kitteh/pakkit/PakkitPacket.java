@@ -16,20 +16,85 @@
 package org.kitteh.pakkit;
 
 import java.lang.reflect.Field;
-import java.util.Collections;
+import java.lang.reflect.Modifier;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 
 import org.bukkit.configuration.ConfigurationSection;
 
 final class PakkitPacket {
+    enum Direction {
+        INBOUND,
+        OUTBOUND;
+    }
+
+    /*
+     * Everything print needs, flattened. Never changed once built, commands
+     * swap in a fresh one instead.
+     */
+    static final class Plan {
+        private final boolean enabled;
+        private final String header;
+        private final String[] names;
+        private final String[] prefixes;
+        private final FieldAccessor[] accessors;
+
+        private Plan(boolean enabled, String header, Map<String, FieldAccessor> fields) {
+            this.enabled = enabled;
+            this.header = header;
+            this.names = fields.keySet().toArray(new String[fields.size()]);
+            this.accessors = fields.values().toArray(new FieldAccessor[fields.size()]);
+            this.prefixes = new String[this.names.length];
+            for (int i = 0; i < this.names.length; i++) {
+                this.prefixes[i] = '"' + this.names[i] + "\":\"";
+            }
+        }
+
+        FieldAccessor getAccessor(int index) {
+            return this.accessors[index];
+        }
+
+        // Not to be changed
+        FieldAccessor[] getAccessors() {
+            return this.accessors;
+        }
+
+        String getName(int index) {
+            return this.names[index];
+        }
+
+        int size() {
+            return this.names.length;
+        }
+    }
+
+    private static final Pattern INBOUND_NAME = Pattern.compile("Packet[A-Z][a-z]*In[A-Z].*");
+    private static final AtomicInteger IDS = new AtomicInteger();
+
     private final Class<?> clazz;
-    private final Map<String, Field> mappings = Collections.synchronizedMap(new LinkedHashMap<String, Field>());
-    private final Map<String, String> mappingsReversed = Collections.synchronizedMap(new HashMap<String, String>());
-    private final Map<String, Field> internalMap = Collections.synchronizedMap(new LinkedHashMap<String, Field>());
+    private final Direction direction;
+    private final boolean chat;
+    private final int id = PakkitPacket.IDS.getAndIncrement();
+    private final FieldAccessor entityAccessor;
+    private volatile int estimatedSize;
+    private volatile PacketSampler sampler = PacketSampler.ALL;
+    private volatile boolean delta;
+    // Null means whatever the defaults are
+    private volatile PacketSink[] sinks;
+    private final PacketCounter counter = new PacketCounter(StripedCounter.DEFAULT_STRIPES);
+    // Made on first use, most types never get traced
+    private volatile LatencyHistogram latency;
+    // The maps and flags below are only touched while holding this
+    private final Map<String, FieldAccessor> mappings = new LinkedHashMap<>();
+    private final Map<String, String> mappingsReversed = new HashMap<>();
+    private final Map<String, FieldAccessor> internalMap = new LinkedHashMap<>();
     private boolean enabled = false;
     private boolean full = false;
+    private boolean scanned = false;
+    private volatile Plan plan;
 
     PakkitPacket(Class<?> clazz) {
         this(clazz, false, true);
@@ -37,73 +102,245 @@ final class PakkitPacket {
 
     PakkitPacket(Class<?> clazz, boolean enabled, boolean full) {
         this.clazz = clazz;
-        for (final Field field : clazz.getDeclaredFields()) {
-            field.setAccessible(true);
-            this.internalMap.put(field.getName(), field);
+        this.direction = PakkitPacket.INBOUND_NAME.matcher(clazz.getSimpleName()).matches() ? Direction.INBOUND : Direction.OUTBOUND;
+        this.chat = clazz.getSimpleName().toLowerCase().contains("chat");
+        FieldAccessor entityAccessor = null;
+        final PacketRegistry registry = PacketRegistry.get(clazz);
+        if (registry != null) {
+            for (final PacketRegistry.PacketInfo info : registry.getMapping()) {
+                if (info.getName().equals(PacketRegistry.ENTITY_ID)) {
+                    entityAccessor = info.getAccessor();
+                }
+            }
         }
+        this.entityAccessor = entityAccessor;
         this.enabled = enabled;
         this.full = full;
+        this.plan = this.buildPlan();
+        if (enabled) {
+            this.scan();
+        }
+    }
+
+    PacketCounter getCounter() {
+        return this.counter;
+    }
+
+    /*
+     * Null until latency tracing was first turned on.
+     */
+    LatencyHistogram getLatency() {
+        return this.latency;
+    }
+
+    /*
+     * Done when tracing goes on, never from the event loop.
+     */
+    synchronized void createLatency() {
+        if (this.latency == null) {
+            this.latency = new LatencyHistogram();
+        }
+    }
+
+    Direction getDirection() {
+        return this.direction;
+    }
+
+    Class<?> getPacketClass() {
+        return this.clazz;
+    }
+
+    FieldAccessor getEntityAccessor() {
+        return this.entityAccessor;
+    }
+
+    /*
+     * Dense, starting at zero. Handlers index per packet state by it.
+     */
+    int getId() {
+        return this.id;
+    }
+
+    /*
+     * What print shows, in order.
+     */
+    Plan getPlan() {
+        return this.plan;
+    }
+
+    PacketSampler getSampler() {
+        return this.sampler;
+    }
+
+    PacketSink[] getSinks() {
+        return this.sinks;
+    }
+
+    /*
+     * Only meaningful once scanned.
+     */
+    int getEstimatedSize() {
+        return this.estimatedSize;
+    }
+
+    boolean isChat() {
+        return this.chat;
+    }
+
+    /*
+     * Only show what changed since the last one for the same player and
+     * entity.
+     */
+    boolean isDelta() {
+        return this.delta;
     }
 
     boolean isEnabled() {
-        return this.enabled;
+        return this.plan.enabled;
     }
 
-    String map(String fieldName, String mapping) {
-        final Field field = this.internalMap.get(fieldName);
-        if (field == null) {
+    synchronized String map(String fieldName, String mapping) {
+        this.scan();
+        final FieldAccessor accessor = this.internalMap.get(fieldName);
+        if (accessor == null) {
             return null;
         }
-        final Field old = this.mappings.put(mapping, field);
+        final FieldAccessor old = this.mappings.put(mapping, accessor);
         this.mappingsReversed.put(fieldName, mapping);
-        if (old == null) {
-            return null;
+        String oldName = null;
+        if (old != null) {
+            oldName = old.getName();
+            if (old != accessor) {
+                this.mappingsReversed.remove(oldName);
+            }
         }
-        final String oldName = old.getName();
-        this.mappingsReversed.remove(oldName);
+        this.plan = this.buildPlan();
         return oldName;
     }
 
     String print(Object o) {
-        if (!this.enabled) {
-            return null;
-        }
         final StringBuilder builder = new StringBuilder();
-        builder.append(this.clazz.getSimpleName()).append('{');
-        for (final Map.Entry<String, Field> entry : (this.full ? this.internalMap : this.mappings).entrySet()) {
-            String name;
-            if (this.full && this.mappingsReversed.containsKey(entry.getKey())) {
-                name = this.mappingsReversed.get(entry.getKey());
-            } else {
-                name = entry.getKey();
-            }
+        return this.print(builder, o) ? builder.toString() : null;
+    }
+
+    /*
+     * Appends onto whatever is already in the builder. False, with nothing
+     * appended, if we're disabled.
+     */
+    boolean print(StringBuilder builder, Object o) {
+        return this.print(builder, o, DeltaStore.ALL);
+    }
 
-            builder.append('\"').append(name).append("\":\"");
+    /*
+     * Only the fields flagged in changed.
+     */
+    boolean print(StringBuilder builder, Object o, long changed) {
+        final Plan plan = this.plan;
+        if (!plan.enabled) {
+            return false;
+        }
+        builder.append(plan.header);
+        final String[] prefixes = plan.prefixes;
+        final FieldAccessor[] accessors = plan.accessors;
+        final int start = builder.length();
+        for (int i = 0; i < accessors.length; i++) {
+            if ((changed != DeltaStore.ALL) && !DeltaStore.isChanged(changed, i)) {
+                continue;
+            }
+            builder.append(prefixes[i]);
             try {
-                builder.append(entry.getValue().get(o).toString());
-            } catch (IllegalArgumentException | IllegalAccessException e) {
+                accessors[i].append(builder, o);
+            } catch (final RuntimeException e) {
                 builder.append(e.getMessage());
             }
             builder.append("\", ");
         }
-        if (!this.mappings.isEmpty()) {
+        if (builder.length() > start) {
             builder.setLength(builder.length() - 2);
         }
         builder.append('}');
-        return builder.toString();
+        return true;
     }
 
-    void save(ConfigurationSection conf) {
+    synchronized void save(ConfigurationSection conf) {
         conf.set("enabled", this.enabled);
         conf.set("full", this.full);
+        conf.set("delta", this.delta);
         conf.createSection("mappings", this.mappingsReversed);
+        this.sampler.save(conf);
+        final PacketSink[] sinks = this.sinks;
+        if (sinks != null) {
+            conf.set("sinks", Pakkit.getSinkNames(sinks));
+        }
     }
 
-    void setEnabled(boolean enabled) {
+    synchronized void setEnabled(boolean enabled) {
+        if (enabled) {
+            this.scan();
+        }
         this.enabled = enabled;
+        this.plan = this.buildPlan();
     }
 
-    void setFull(boolean full) {
-        this.full = this.clazz.getSimpleName().toLowerCase().contains("chat") || full;
+    void setDelta(boolean delta) {
+        this.delta = delta;
+    }
+
+    void setSampler(PacketSampler sampler) {
+        this.sampler = sampler;
+    }
+
+    void setSinks(PacketSink[] sinks) {
+        this.sinks = sinks;
+    }
+
+    synchronized void setFull(boolean full) {
+        this.full = this.chat || full;
+        this.plan = this.buildPlan();
+    }
+
+    /*
+     * The reflective part, held off until the type is actually seen on the
+     * wire or turned on. Cheap to call again.
+     */
+    synchronized void scan() {
+        if (this.scanned) {
+            return;
+        }
+        // Packet id, then a rough guess at what each field costs on the wire
+        int size = 1;
+        for (final Field field : this.clazz.getDeclaredFields()) {
+            this.internalMap.put(field.getName(), FieldAccessor.of(field));
+            if (!Modifier.isStatic(field.getModifiers())) {
+                size += PakkitPacket.estimateSize(field.getType());
+            }
+        }
+        this.estimatedSize = size;
+        this.scanned = true;
+        this.plan = this.buildPlan();
+    }
+
+    // Hold the lock
+    private Plan buildPlan() {
+        if (!this.full) {
+            return new Plan(this.enabled, this.clazz.getSimpleName() + '{', this.mappings);
+        }
+        final Map<String, FieldAccessor> fields = new LinkedHashMap<>();
+        for (final Map.Entry<String, FieldAccessor> entry : this.internalMap.entrySet()) {
+            final String mapped = this.mappingsReversed.get(entry.getKey());
+            fields.put(mapped == null ? entry.getKey() : mapped, entry.getValue());
+        }
+        return new Plan(this.enabled, this.clazz.getSimpleName() + '{', fields);
+    }
+
+    private static int estimateSize(Class<?> type) {
+        if ((type == boolean.class) || (type == byte.class)) {
+            return 1;
+        } else if ((type == short.class) || (type == char.class)) {
+            return 2;
+        } else if ((type == int.class) || (type == float.class)) {
+            return 4;
+        }
+        return 8;
     }
 }
\ No newline at end of file
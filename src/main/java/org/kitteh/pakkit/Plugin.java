@@ -20,6 +20,16 @@ import java.util.logging.Level;
 import org.bukkit.plugin.java.JavaPlugin;
 
 public final class Plugin extends JavaPlugin {
+    private Pakkit pakkit;
+
+    @Override
+    public void onDisable() {
+        if (this.pakkit != null) {
+            this.pakkit.shutdown();
+            this.pakkit = null;
+        }
+    }
+
     @Override
     public void onEnable() {
         try {
@@ -28,6 +38,6 @@ public final class Plugin extends JavaPlugin {
             this.getLogger().log(Level.SEVERE, "I cannot has 1.7 or higher", e);
             return;
         }
-        new Pakkit(this);
+        this.pakkit = new Pakkit(this);
     }
 }
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2012-2013 Matt Baxter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitteh.pakkit;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * Encodes a batch into memory on the pipeline thread, then hands the whole
+ * chunk to its own writer thread. The file might be a fifo with nobody
+ * reading it yet, so the pipeline must never be the one stuck on it. If the
+ * writer can't keep up, the chunk queue fills and batches get dropped.
+ *
+ * Only plain files and fifos, Java 7 has no Unix-domain sockets. Tools that
+ * want a stream make a fifo (mkfifo) at the configured path and read that.
+ */
+abstract class StreamSink extends PacketSink implements Runnable {
+    private static final class Chunk {
+        private final byte[] data;
+        private final int packets;
+
+        private Chunk(byte[] data, int packets) {
+            this.data = data;
+            this.packets = packets;
+        }
+    }
+
+    private final File file;
+    private final Logger logger;
+    private final BlockingQueue<Chunk> queue;
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream(64 * 1024);
+    private final DataOutputStream pendingOut = new DataOutputStream(this.pending);
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread thread;
+    private int pendingPackets;
+    private volatile boolean backedUp;
+    private volatile boolean running = true;
+
+    StreamSink(String name, File file, Logger logger, int capacity) {
+        super(name);
+        this.file = file;
+        this.logger = logger;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.thread = new Thread(this, "Pakkit Sink " + name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    @Override
+    void close() {
+        this.running = false;
+        try {
+            this.thread.join(TimeUnit.SECONDS.toMillis(2));
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    String describe() {
+        return super.describe() + ", " + this.file;
+    }
+
+    @Override
+    void flush() {
+        if (this.pendingPackets == 0) {
+            return;
+        }
+        final Chunk chunk = new Chunk(this.pending.toByteArray(), this.pendingPackets);
+        this.pending.reset();
+        this.pendingPackets = 0;
+        if (this.queue.offer(chunk)) {
+            if (this.backedUp) {
+                this.backedUp = false;
+                this.logger.info("Sink " + this.getName() + " caught up");
+            }
+            return;
+        }
+        this.dropped.addAndGet(chunk.packets);
+        if (!this.backedUp) {
+            this.backedUp = true;
+            this.logger.warning("Sink " + this.getName() + " can't keep up with " + this.file + ", dropping batches");
+        }
+    }
+
+    @Override
+    long getDropped() {
+        return this.dropped.get();
+    }
+
+    @Override
+    boolean isBackedUp() {
+        return this.backedUp;
+    }
+
+    @Override
+    public void run() {
+        OutputStream stream = null;
+        while (this.running || !this.queue.isEmpty()) {
+            Chunk chunk;
+            try {
+                chunk = this.queue.poll(250, TimeUnit.MILLISECONDS);
+            } catch (final InterruptedException e) {
+                break;
+            }
+            if (chunk == null) {
+                continue;
+            }
+            try {
+                if (stream == null) {
+                    this.file.getAbsoluteFile().getParentFile().mkdirs();
+                    stream = new BufferedOutputStream(new FileOutputStream(this.file, true), 64 * 1024);
+                }
+                do {
+                    stream.write(chunk.data);
+                } while ((chunk = this.queue.poll()) != null);
+                stream.flush();
+            } catch (final IOException e) {
+                this.logger.log(Level.WARNING, "Sink " + this.getName() + " could not write to " + this.file, e);
+                StreamSink.closeQuietly(stream);
+                stream = null;
+            }
+        }
+        StreamSink.closeQuietly(stream);
+    }
+
+    @Override
+    void write(CapturedPacket captured) {
+        // Delta mode, and only fields outside the plan changed
+        if (captured.getChanged() == 0) {
+            return;
+        }
+        try {
+            this.encode(this.pendingOut, captured);
+            this.pendingOut.flush();
+        } catch (final IOException e) {
+            // It's a ByteArrayOutputStream
+            throw new IllegalStateException(e);
+        }
+        this.pendingPackets++;
+    }
+
+    abstract void encode(DataOutputStream out, CapturedPacket captured) throws IOException;
+
+    private static void closeQuietly(OutputStream stream) {
+        if (stream == null) {
+            return;
+        }
+        try {
+            stream.close();
+        } catch (final IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2012-2013 Matt Baxter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitteh.pakkit;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * A poor man's LongAdder. Each thread adds to its own cache-line sized slot,
+ * picked by thread id, so the event loops don't fight over one long.
+ */
+final class StripedCounter {
+    // Longs per 64 byte cache line
+    private static final int PAD = 8;
+    static final int DEFAULT_STRIPES;
+
+    static {
+        int stripes = 1;
+        while ((stripes < (Runtime.getRuntime().availableProcessors() * 2)) && (stripes < 64)) {
+            stripes <<= 1;
+        }
+        DEFAULT_STRIPES = stripes;
+    }
+
+    private final AtomicLongArray cells;
+    private final int mask;
+
+    StripedCounter(int stripes) {
+        int size = 1;
+        while (size < stripes) {
+            size <<= 1;
+        }
+        this.cells = new AtomicLongArray(size * StripedCounter.PAD);
+        this.mask = size - 1;
+    }
+
+    void add(long value) {
+        this.cells.getAndAdd(((int) Thread.currentThread().getId() & this.mask) * StripedCounter.PAD, value);
+    }
+
+    long sum() {
+        long sum = 0;
+        for (int i = 0; i < this.cells.length(); i += StripedCounter.PAD) {
+            sum += this.cells.get(i);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2012-2013 Matt Baxter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitteh.pakkit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.bukkit.command.CommandSender;
+
+/*
+ * Who is watching whom. Read on every packet from the Netty threads, changed
+ * only by commands, so each target's subscriptions are an array that gets
+ * copied on write. No entry at all means nobody cares about that player.
+ */
+final class Subscriptions {
+    static final class Subscription {
+        private final CommandSender subscriber;
+        private final UUID target;
+        private final String targetName;
+        // By PakkitPacket id, null for everything. Never changed once built.
+        private final BitSet types;
+
+        Subscription(CommandSender subscriber, UUID target, String targetName, BitSet types) {
+            this.subscriber = subscriber;
+            this.target = target;
+            this.targetName = targetName;
+            this.types = types;
+        }
+
+        CommandSender getSubscriber() {
+            return this.subscriber;
+        }
+
+        String getTargetName() {
+            return this.targetName;
+        }
+
+        boolean wants(PakkitPacket pak) {
+            return (this.types == null) || this.types.get(pak.getId());
+        }
+    }
+
+    private static final Subscription[] NONE = new Subscription[0];
+
+    private final ConcurrentMap<UUID, Subscription[]> byTarget = new ConcurrentHashMap<>();
+
+    Subscription[] get(UUID target) {
+        final Subscription[] subscriptions = this.byTarget.get(target);
+        return subscriptions == null ? Subscriptions.NONE : subscriptions;
+    }
+
+    List<Subscription> getSubscriptions(CommandSender subscriber) {
+        final List<Subscription> found = new ArrayList<>();
+        for (final Subscription[] subscriptions : this.byTarget.values()) {
+            for (final Subscription subscription : subscriptions) {
+                if (subscription.subscriber == subscriber) {
+                    found.add(subscription);
+                }
+            }
+        }
+        return found;
+    }
+
+    boolean isWatched(UUID target, PakkitPacket pak) {
+        final Subscription[] subscriptions = this.byTarget.get(target);
+        if (subscriptions == null) {
+            return false;
+        }
+        for (final Subscription subscription : subscriptions) {
+            if (subscription.wants(pak)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Replaces whatever the subscriber had on that target before.
+     */
+    synchronized void subscribe(Subscription subscription) {
+        this.remove(subscription.subscriber, subscription.target);
+        final Subscription[] old = this.get(subscription.target);
+        final Subscription[] updated = Arrays.copyOf(old, old.length + 1);
+        updated[old.length] = subscription;
+        this.byTarget.put(subscription.target, updated);
+    }
+
+    synchronized boolean unsubscribe(CommandSender subscriber, UUID target) {
+        return this.remove(subscriber, target);
+    }
+
+    synchronized int unsubscribeAll(CommandSender subscriber) {
+        int removed = 0;
+        for (final Map.Entry<UUID, Subscription[]> entry : this.byTarget.entrySet()) {
+            if (this.remove(subscriber, entry.getKey())) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    // Hold the lock
+    private boolean remove(CommandSender subscriber, UUID target) {
+        final Subscription[] old = this.byTarget.get(target);
+        if (old == null) {
+            return false;
+        }
+        final List<Subscription> kept = new ArrayList<>(old.length);
+        for (final Subscription subscription : old) {
+            if (subscription.subscriber != subscriber) {
+                kept.add(subscription);
+            }
+        }
+        if (kept.size() == old.length) {
+            return false;
+        }
+        if (kept.isEmpty()) {
+            this.byTarget.remove(target);
+        } else {
+            this.byTarget.put(target, kept.toArray(new Subscription[kept.size()]));
+        }
+        return true;
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2012-2013 Matt Baxter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitteh.pakkit;
+
+/*
+ * Bumped once a tick by a sync task, read from anywhere.
+ */
+final class TickCounter implements Runnable {
+    private volatile long tick = 0;
+
+    long get() {
+        return this.tick;
+    }
+
+    @Override
+    public void run() {
+        // Only the main thread writes
+        this.tick = this.tick + 1;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2012-2013 Matt Baxter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitteh.pakkit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/*
+ * Outbound packets and bytes per server tick for one player, over the last
+ * few seconds worth of ticks. A slot per tick in a ring, and each slot keeps
+ * the first few packet types it sees, anything past that lands in other.
+ *
+ * Only the player's event loop writes. Readers get a racy look, good enough
+ * to find the bursty ticks.
+ */
+final class TickHistory {
+    static final class Tick {
+        private final long tick;
+        private final int packets;
+        private final int bytes;
+        private final int[] typeIds;
+        private final int[] typeCounts;
+        private final int other;
+
+        private Tick(long tick, int packets, int bytes, int[] typeIds, int[] typeCounts, int other) {
+            this.tick = tick;
+            this.packets = packets;
+            this.bytes = bytes;
+            this.typeIds = typeIds;
+            this.typeCounts = typeCounts;
+            this.other = other;
+        }
+
+        int getBytes() {
+            return this.bytes;
+        }
+
+        /*
+         * Packets of types that didn't get a slot of their own.
+         */
+        int getOther() {
+            return this.other;
+        }
+
+        int getPackets() {
+            return this.packets;
+        }
+
+        long getTick() {
+            return this.tick;
+        }
+
+        /*
+         * PakkitPacket ids, most packets first, with getTypeCounts alongside.
+         */
+        int[] getTypeIds() {
+            return this.typeIds;
+        }
+
+        int[] getTypeCounts() {
+            return this.typeCounts;
+        }
+    }
+
+    private static final int TYPES = 8;
+
+    private final long[] ticks;
+    private final int[] packets;
+    private final int[] bytes;
+    private final int[] typeIds;
+    private final int[] typeCounts;
+    private final int[] other;
+
+    TickHistory(int size) {
+        this.ticks = new long[size];
+        // Nothing has happened on tick -1
+        Arrays.fill(this.ticks, -1);
+        this.packets = new int[size];
+        this.bytes = new int[size];
+        this.typeIds = new int[size * TickHistory.TYPES];
+        this.typeCounts = new int[size * TickHistory.TYPES];
+        this.other = new int[size];
+    }
+
+    void add(long tick, int typeId, int size) {
+        final int slot = this.slot(tick);
+        this.packets[slot]++;
+        this.bytes[slot] += size;
+        final int base = slot * TickHistory.TYPES;
+        for (int i = base; i < (base + TickHistory.TYPES); i++) {
+            if (this.typeCounts[i] == 0) {
+                this.typeIds[i] = typeId;
+                this.typeCounts[i] = 1;
+                return;
+            }
+            if (this.typeIds[i] == typeId) {
+                this.typeCounts[i]++;
+                return;
+            }
+        }
+        this.other[slot]++;
+    }
+
+    /*
+     * Real sizes from the wire tap, which turn up after add.
+     */
+    void addBytes(long tick, int size) {
+        this.bytes[this.slot(tick)] += size;
+    }
+
+    /*
+     * The busiest ticks still in the ring, by packets, up to count of them.
+     */
+    List<Tick> getBurstiest(long now, int count) {
+        final List<Tick> found = new ArrayList<>();
+        for (int slot = 0; slot < this.ticks.length; slot++) {
+            final long tick = this.ticks[slot];
+            final int packets = this.packets[slot];
+            if ((tick < 0) || ((now - tick) >= this.ticks.length) || (packets == 0)) {
+                continue;
+            }
+            found.add(this.snapshot(slot, tick, packets));
+        }
+        Collections.sort(found, new Comparator<Tick>() {
+            @Override
+            public int compare(Tick a, Tick b) {
+                return a.packets == b.packets ? Long.compare(b.tick, a.tick) : Integer.compare(b.packets, a.packets);
+            }
+        });
+        return found.size() > count ? found.subList(0, count) : found;
+    }
+
+    private int slot(long tick) {
+        final int slot = (int) (tick % this.ticks.length);
+        if (this.ticks[slot] != tick) {
+            this.packets[slot] = 0;
+            this.bytes[slot] = 0;
+            this.other[slot] = 0;
+            Arrays.fill(this.typeCounts, slot * TickHistory.TYPES, (slot + 1) * TickHistory.TYPES, 0);
+            this.ticks[slot] = tick;
+        }
+        return slot;
+    }
+
+    private Tick snapshot(int slot, long tick, int packets) {
+        final int base = slot * TickHistory.TYPES;
+        int types = 0;
+        while ((types < TickHistory.TYPES) && (this.typeCounts[base + types] > 0)) {
+            types++;
+        }
+        final int[] ids = Arrays.copyOfRange(this.typeIds, base, base + types);
+        final int[] counts = Arrays.copyOfRange(this.typeCounts, base, base + types);
+        // Insertion sort, there's at most eight
+        for (int i = 1; i < types; i++) {
+            for (int j = i; (j > 0) && (counts[j] > counts[j - 1]); j--) {
+                final int count = counts[j];
+                counts[j] = counts[j - 1];
+                counts[j - 1] = count;
+                final int id = ids[j];
+                ids[j] = ids[j - 1];
+                ids[j - 1] = id;
+            }
+        }
+        return new Tick(tick, packets, this.bytes[slot], ids, counts, this.other[slot]);
+    }
+}
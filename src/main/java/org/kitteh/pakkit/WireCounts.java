@@ -0,0 +1,52 @@
+/*
+ * Copyright 2012-2013 Matt Baxter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitteh.pakkit;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Encoded packets and bytes per packet type for one player, indexed by
+ * PakkitPacket id. Only the player's event loop writes, so no CAS, anyone can
+ * read.
+ */
+final class WireCounts {
+    // Packets then bytes, per id
+    private volatile AtomicLongArray counts = new AtomicLongArray(128);
+
+    void add(int id, int bytes) {
+        AtomicLongArray counts = this.counts;
+        if (((id * 2) + 1) >= counts.length()) {
+            final AtomicLongArray bigger = new AtomicLongArray(Math.max((id + 1) * 2, counts.length() * 2));
+            for (int i = 0; i < counts.length(); i++) {
+                bigger.set(i, counts.get(i));
+            }
+            this.counts = bigger;
+            counts = bigger;
+        }
+        counts.lazySet(id * 2, counts.get(id * 2) + 1);
+        counts.lazySet((id * 2) + 1, counts.get((id * 2) + 1) + bytes);
+    }
+
+    long getBytes(int id) {
+        final AtomicLongArray counts = this.counts;
+        return ((id * 2) + 1) < counts.length() ? counts.get((id * 2) + 1) : 0;
+    }
+
+    long getPackets(int id) {
+        final AtomicLongArray counts = this.counts;
+        return ((id * 2) + 1) < counts.length() ? counts.get(id * 2) : 0;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2012-2013 Matt Baxter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http:www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.kitteh.pakkit;
+
+import net.minecraft.util.io.netty.buffer.ByteBuf;
+import net.minecraft.util.io.netty.channel.ChannelHandlerContext;
+import net.minecraft.util.io.netty.channel.ChannelInboundHandlerAdapter;
+import net.minecraft.util.io.netty.channel.ChannelOutboundHandlerAdapter;
+import net.minecraft.util.io.netty.channel.ChannelPipeline;
+import net.minecraft.util.io.netty.channel.ChannelPromise;
+
+/*
+ * Exact wire sizes. Two taps that only see encoded frames, one between the
+ * splitter and the decoder, one between the encoder and the length prefixer.
+ * Nothing is copied, we just look at readableBytes.
+ *
+ * Which packet a frame belongs to is the Handler's business. Both run on the
+ * channel's event loop and the codec runs inside the Handler's own write or
+ * read, so there's only ever the one packet in flight. Not in the pipeline
+ * at all unless wire sizes are on.
+ */
+final class WireTap {
+    static final String IN_NAME = "pakkit_wire_in";
+    static final String OUT_NAME = "pakkit_wire_out";
+    // Minecraft's framing, the length prefix goes on outside of these two
+    private static final String SPLITTER = "splitter";
+    private static final String PREPENDER = "prepender";
+
+    /*
+     * The length prefix is a VarInt, which the frames don't include.
+     */
+    static int framed(int length) {
+        int prefix = 1;
+        for (int rest = length >>> 7; rest != 0; rest >>>= 7) {
+            prefix++;
+        }
+        return prefix + length;
+    }
+
+    static void removeFrom(ChannelPipeline pipeline) {
+        if (pipeline.get(WireTap.IN_NAME) != null) {
+            pipeline.remove(WireTap.IN_NAME);
+        }
+        if (pipeline.get(WireTap.OUT_NAME) != null) {
+            pipeline.remove(WireTap.OUT_NAME);
+        }
+    }
+
+    private final ChannelInboundHandlerAdapter in = new ChannelInboundHandlerAdapter() {
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            if (msg instanceof ByteBuf) {
+                WireTap.this.read = WireTap.framed(((ByteBuf) msg).readableBytes());
+            }
+            super.channelRead(ctx, msg);
+        }
+    };
+    private final ChannelOutboundHandlerAdapter out = new ChannelOutboundHandlerAdapter() {
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+            if (WireTap.this.writing && (msg instanceof ByteBuf)) {
+                WireTap.this.written = WireTap.framed(((ByteBuf) msg).readableBytes());
+            }
+            super.write(ctx, msg, promise);
+        }
+    };
+    // Event loop only, like the Handler
+    private boolean writing;
+    private int read = -1;
+    private int written = -1;
+
+    /*
+     * False if this pipeline doesn't look like Minecraft's.
+     */
+    boolean addTo(ChannelPipeline pipeline) {
+        if ((pipeline.get(WireTap.SPLITTER) == null) || (pipeline.get(WireTap.PREPENDER) == null)) {
+            WireTap.removeFrom(pipeline);
+            return false;
+        }
+        if (pipeline.get(WireTap.IN_NAME) != null) {
+            pipeline.replace(WireTap.IN_NAME, WireTap.IN_NAME, this.in);
+        } else {
+            pipeline.addAfter(WireTap.SPLITTER, WireTap.IN_NAME, this.in);
+        }
+        if (pipeline.get(WireTap.OUT_NAME) != null) {
+            pipeline.replace(WireTap.OUT_NAME, WireTap.OUT_NAME, this.out);
+        } else {
+            pipeline.addAfter(WireTap.PREPENDER, WireTap.OUT_NAME, this.out);
+        }
+        return true;
+    }
+
+    void setWriting(boolean writing) {
+        this.writing = writing;
+    }
+
+    /*
+     * Size of the last frame read, -1 if there wasn't one since.
+     */
+    int takeRead() {
+        final int read = this.read;
+        this.read = -1;
+        return read;
+    }
+
+    /*
+     * Size of the frame the last write turned into, -1 if none.
+     */
+    int takeWritten() {
+        final int written = this.written;
+        this.written = -1;
+        return written;
+    }
+}
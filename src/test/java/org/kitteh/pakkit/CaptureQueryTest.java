@@ -0,0 +1,81 @@
+package org.kitteh.pakkit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+
+import org.bukkit.entity.Player;
+import org.junit.Assert;
+import org.junit.Test;
+
+public final class CaptureQueryTest {
+    private static final class Animation {
+        private int a = 5;
+        private int b = 0;
+    }
+
+    private static Player player(final UUID uuid) {
+        return (Player) Proxy.newProxyInstance(CaptureQueryTest.class.getClassLoader(), new Class<?>[] { Player.class }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return method.getName().equals("getUniqueId") ? uuid : null;
+            }
+        });
+    }
+
+    @Test
+    public void decodedRoundTrip() throws IOException, NoSuchFieldException {
+        final PacketRegistry.Output animation = new PacketRegistry.OutputIntItem() {
+            @Override
+            String getOutput(Object packet, int value) {
+                return value == 0 ? "Swing arm" : null;
+            }
+        };
+        PacketRegistry.register(Collections.singletonList(new PacketRegistry("ANIMATION", Animation.class, Arrays.asList(
+                new PacketRegistry.PacketInfo(PacketRegistry.ENTITY_ID, FieldAccessor.of(Animation.class.getDeclaredField("a")), PacketRegistry.DEFAULT_OUTPUT),
+                new PacketRegistry.PacketInfo("animation", FieldAccessor.of(Animation.class.getDeclaredField("b")), animation)))));
+        final File directory = Files.createTempDirectory("pakkit").toFile();
+        try {
+            final UUID uuid = UUID.randomUUID();
+            final PacketRecorder recorder = new PacketRecorder(directory, 1 << 16, Long.MAX_VALUE);
+            recorder.write(new CapturedPacket(CaptureQueryTest.player(uuid), null, new Animation(), 1000, 20));
+            recorder.close();
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            new CaptureQuery().run(directory, new PrintStream(bytes, true, "UTF-8"));
+            Assert.assertEquals("1000 tick 20 " + uuid + " ANIMATION{\"EntityID\": \"5\", \"animation\": \"Swing arm\"}", bytes.toString("UTF-8").trim());
+        } finally {
+            PacketRegistry.register(Collections.<PacketRegistry>emptyList());
+            for (final File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    @Test
+    public void oversized() throws IOException {
+        final File directory = Files.createTempDirectory("pakkit").toFile();
+        try {
+            final PacketRecorder recorder = new PacketRecorder(directory, 64, Long.MAX_VALUE);
+            recorder.write(new CapturedPacket(CaptureQueryTest.player(UUID.randomUUID()), null, new Animation(), 1000, 20));
+            Assert.assertEquals(1, recorder.getOversized());
+            recorder.close();
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            new CaptureQuery().run(directory, new PrintStream(bytes, true, "UTF-8"));
+            Assert.assertEquals("", bytes.toString("UTF-8").trim());
+        } finally {
+            for (final File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+}
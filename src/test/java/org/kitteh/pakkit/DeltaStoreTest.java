@@ -0,0 +1,63 @@
+package org.kitteh.pakkit;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public final class DeltaStoreTest {
+    private static final class Move {
+        private int a;
+        private double b;
+        private String c;
+
+        private Move(int a, double b, String c) {
+            this.a = a;
+            this.b = b;
+            this.c = c;
+        }
+    }
+
+    @Test
+    public void changed() {
+        final PakkitPacket pak = new PakkitPacket(Move.class, true, true);
+        final DeltaStore store = new DeltaStore(16);
+        Assert.assertEquals(DeltaStore.ALL, store.changed(pak, pak.getPlan(), 1, new Move(1, 2, "x")));
+        Assert.assertEquals(0, store.changed(pak, pak.getPlan(), 1, new Move(1, 2, "x")));
+        final long changed = store.changed(pak, pak.getPlan(), 1, new Move(1, 3, "y"));
+        Assert.assertFalse(DeltaStore.isChanged(changed, 0));
+        Assert.assertTrue(DeltaStore.isChanged(changed, 1));
+        Assert.assertTrue(DeltaStore.isChanged(changed, 2));
+        // Other entities are tracked separately
+        Assert.assertEquals(DeltaStore.ALL, store.changed(pak, pak.getPlan(), 2, new Move(1, 3, "y")));
+        pak.setFull(false);
+        Assert.assertEquals(DeltaStore.ALL, store.changed(pak, pak.getPlan(), 1, new Move(1, 3, "y")));
+    }
+
+    @Test
+    public void registry() throws NoSuchFieldException {
+        // Not the plan's order, and a field short
+        final PacketRegistry registry = new PacketRegistry("MOVE", Move.class, Arrays.asList(
+                new PacketRegistry.PacketInfo("Text", FieldAccessor.of(Move.class.getDeclaredField("c")), PacketRegistry.DEFAULT_OUTPUT),
+                new PacketRegistry.PacketInfo("EntityID", FieldAccessor.of(Move.class.getDeclaredField("a")), PacketRegistry.DEFAULT_OUTPUT)));
+        final PakkitPacket pak = new PakkitPacket(Move.class, true, true);
+        final DeltaStore store = new DeltaStore(16);
+        Assert.assertEquals(DeltaStore.ALL, store.changed(pak, registry, 1, new Move(1, 2, "x")));
+        // The plan's rows are separate
+        Assert.assertEquals(DeltaStore.ALL, store.changed(pak, pak.getPlan(), 1, new Move(1, 2, "x")));
+        Assert.assertEquals(0, store.changed(pak, registry, 1, new Move(1, 3, "x")));
+        final long changed = store.changed(pak, registry, 1, new Move(1, 3, "y"));
+        Assert.assertEquals(1L, changed);
+        final StringBuilder builder = new StringBuilder();
+        registry.output(builder, new Move(1, 3, "y"), changed);
+        Assert.assertEquals("MOVE{\"Text\": \"y\"}", builder.toString());
+    }
+
+    @Test
+    public void print() {
+        final PakkitPacket pak = new PakkitPacket(Move.class, true, true);
+        final StringBuilder builder = new StringBuilder();
+        pak.print(builder, new Move(1, 2, "x"), 1L << 1);
+        Assert.assertEquals("Move{\"b\":\"2.0\"}", builder.toString());
+    }
+}
@@ -0,0 +1,101 @@
+package org.kitteh.pakkit;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public final class FieldAccessorTest {
+    private static final class Fields {
+        private static int constant = 9;
+
+        private boolean bool = true;
+        private byte b = -3;
+        private char c = 'x';
+        private double d = 1.5;
+        private float f = 2.5F;
+        private int i = 42;
+        private long l = 1L << 40;
+        private Object o = "text";
+        private short s = 7;
+    }
+
+    private static FieldAccessor of(String name) throws NoSuchFieldException {
+        return FieldAccessor.of(Fields.class.getDeclaredField(name));
+    }
+
+    @Test
+    public void fail() throws NoSuchFieldException {
+        final FieldAccessor accessor = FieldAccessorTest.of("i");
+        try {
+            accessor.getInt("not fields");
+            Assert.fail();
+        } catch (final IllegalStateException e) {
+            Assert.assertTrue(e.getCause() instanceof ClassCastException);
+        }
+    }
+
+    @Test
+    public void fallback() throws ReflectiveOperationException {
+        final List<LogRecord> records = new ArrayList<>();
+        final Logger logger = Logger.getLogger("FieldAccessorTest");
+        logger.setUseParentHandlers(false);
+        logger.addHandler(new Handler() {
+            @Override
+            public void close() {
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void publish(LogRecord record) {
+                records.add(record);
+            }
+        });
+        AccessorGenerator.setLogger(logger);
+        try {
+            final Field field = Fields.class.getDeclaredField("i");
+            field.setAccessible(true);
+            final MethodHandle handle = MethodHandles.lookup().unreflectGetter(field).asType(MethodType.methodType(int.class, Object.class));
+            // Can't extend a final class, so defining it fails for real
+            @SuppressWarnings("unchecked")
+            final Class<? extends FieldAccessor> notAccessor = (Class<? extends FieldAccessor>) (Class<?>) String.class;
+            Assert.assertNull(AccessorGenerator.define(notAccessor, "getInt", field, handle));
+            Assert.assertEquals(1, records.size());
+            Assert.assertNotNull(records.get(0).getThrown());
+            final FieldAccessor accessor = FieldAccessor.of(field);
+            Assert.assertSame(FieldAccessor.IntAccessor.class, accessor.getClass());
+            Assert.assertEquals(42, accessor.getInt(new Fields()));
+            Assert.assertEquals("Logged once", 1, records.size());
+        } finally {
+            AccessorGenerator.setLogger(Logger.getLogger(AccessorGenerator.class.getName()));
+            AccessorGenerator.reset();
+        }
+        Assert.assertTrue("Generating again", FieldAccessorTest.of("i").getClass() != FieldAccessor.IntAccessor.class);
+    }
+
+    @Test
+    public void read() throws NoSuchFieldException {
+        final Fields fields = new Fields();
+        Assert.assertTrue(FieldAccessorTest.of("bool").getBoolean(fields));
+        Assert.assertEquals(-3, FieldAccessorTest.of("b").getInt(fields));
+        Assert.assertEquals('x', FieldAccessorTest.of("c").getChar(fields));
+        Assert.assertEquals(1.5, FieldAccessorTest.of("d").getDouble(fields), 0);
+        Assert.assertEquals(2.5, FieldAccessorTest.of("f").getDouble(fields), 0);
+        Assert.assertEquals(42L, FieldAccessorTest.of("i").getLong(fields));
+        Assert.assertEquals(1L << 40, FieldAccessorTest.of("l").getBits(fields));
+        Assert.assertEquals("text", FieldAccessorTest.of("o").get(fields));
+        Assert.assertEquals(Short.valueOf((short) 7), FieldAccessorTest.of("s").get(fields));
+        Assert.assertEquals("9", FieldAccessorTest.of("constant").getString(null));
+    }
+}
@@ -0,0 +1,77 @@
+package org.kitteh.pakkit;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public final class HeavyHittersTest {
+    @Test
+    public void heavyKeysSurviveTheNoise() {
+        final HeavyHitters<String> hitters = new HeavyHitters<>(10, 8, 1);
+        for (int i = 0; i < 1000; i++) {
+            hitters.add("loud", 5);
+            hitters.add("quiet" + i, 1);
+            if ((i % 4) == 0) {
+                hitters.add("medium", 3);
+            }
+        }
+        hitters.rotate();
+        final List<HeavyHitters.Hit<String>> top = hitters.top(2);
+        Assert.assertEquals(2, top.size());
+        Assert.assertEquals("loud", top.get(0).getKey());
+        Assert.assertEquals(5000, top.get(0).getCount());
+        Assert.assertEquals("medium", top.get(1).getKey());
+        Assert.assertTrue(top.get(1).getCount() >= 750);
+    }
+
+    @Test
+    public void elapsed() {
+        final HeavyHitters<String> hitters = new HeavyHitters<>(2, 4, 1);
+        hitters.rotate(1000000000L);
+        hitters.rotate(2000000000L);
+        // A lagging timer, three seconds in the last row
+        hitters.rotate(5000000000L);
+        Assert.assertEquals(4.0, hitters.getElapsed(), 1e-9);
+    }
+
+    @Test
+    public void mergeNeverUndercounts() {
+        final HeavyHitters<String> hitters = new HeavyHitters<>(2, 2, 1);
+        hitters.add("x", 3);
+        hitters.add("y", 3);
+        // Pushes x out of the first second
+        hitters.add("z", 1);
+        hitters.rotate();
+        hitters.add("x", 2);
+        hitters.rotate();
+        final Map<String, Long> real = new HashMap<>();
+        real.put("x", 5L);
+        real.put("y", 3L);
+        real.put("z", 1L);
+        final List<HeavyHitters.Hit<String>> top = hitters.top(3);
+        Assert.assertEquals(3, top.size());
+        for (final HeavyHitters.Hit<String> hit : top) {
+            final long count = real.get(hit.getKey());
+            Assert.assertTrue(hit.getKey() + " undercounted", hit.getCount() >= count);
+            Assert.assertTrue(hit.getKey() + " off by more than the error", (hit.getCount() - hit.getError()) <= count);
+        }
+    }
+
+    @Test
+    public void window() {
+        final HeavyHitters<String> hitters = new HeavyHitters<>(2, 4, 1);
+        hitters.add("old", 10);
+        Assert.assertTrue("The second being filled isn't shown", hitters.top(5).isEmpty());
+        hitters.rotate();
+        hitters.add("new", 1);
+        hitters.rotate();
+        Assert.assertEquals(2, hitters.top(5).size());
+        Assert.assertEquals(2, hitters.getSpan());
+        hitters.rotate();
+        Assert.assertEquals(1, hitters.top(5).size());
+        Assert.assertEquals("new", hitters.top(5).get(0).getKey());
+    }
+}
@@ -0,0 +1,31 @@
+package org.kitteh.pakkit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public final class JsonSinkTest {
+    private static final class Fields {
+        private double d = Double.NaN;
+        private int i = 7;
+        private String s = "a\"b";
+        private String n;
+    }
+
+    @Test
+    public void escape() {
+        final StringBuilder builder = new StringBuilder();
+        JsonSink.appendString(builder, "quote\" slash\\ line\n tab\t bell\u0007");
+        Assert.assertEquals("\"quote\\\" slash\\\\ line\\n tab\\t bell\\u0007\"", builder.toString());
+    }
+
+    @Test
+    public void values() throws NoSuchFieldException {
+        final Fields fields = new Fields();
+        final StringBuilder builder = new StringBuilder();
+        for (final String name : new String[] { "d", "i", "s", "n" }) {
+            JsonSink.appendValue(builder, FieldAccessor.of(Fields.class.getDeclaredField(name)), fields);
+            builder.append(',');
+        }
+        Assert.assertEquals("\"NaN\",7,\"a\\\"b\",null,", builder.toString());
+    }
+}
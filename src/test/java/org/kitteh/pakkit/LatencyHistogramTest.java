@@ -0,0 +1,35 @@
+package org.kitteh.pakkit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public final class LatencyHistogramTest {
+    @Test
+    public void buckets() {
+        for (final long value : new long[] { 0, 1, 7, 8, 15, 16, 17, 1000, 123456789, Long.MAX_VALUE }) {
+            final int bucket = LatencyHistogram.bucket(value);
+            Assert.assertTrue(value + " above its bucket", LatencyHistogram.lowest(bucket) <= value);
+            Assert.assertTrue(value + " below its bucket", LatencyHistogram.highest(bucket) >= value);
+            // Within an eighth
+            Assert.assertTrue(value + " bucket too wide", (LatencyHistogram.highest(bucket) - LatencyHistogram.lowest(bucket)) <= Math.max(1, value / 8));
+        }
+        Assert.assertEquals(LatencyHistogram.highest(LatencyHistogram.bucket(1000)) + 1, LatencyHistogram.lowest(LatencyHistogram.bucket(1000) + 1));
+    }
+
+    @Test
+    public void percentiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        Assert.assertEquals(1000, histogram.getCount());
+        Assert.assertEquals(1000000, histogram.getMax());
+        final long p50 = histogram.getPercentile(50);
+        Assert.assertTrue("p50 " + p50, (p50 >= 500000) && (p50 <= (500000 + (500000 / 8))));
+        final long p99 = histogram.getPercentile(99);
+        Assert.assertTrue("p99 " + p99, (p99 >= 990000) && (p99 <= 1000000));
+        histogram.reset();
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertEquals(0, histogram.getPercentile(99));
+    }
+}
@@ -0,0 +1,36 @@
+package org.kitteh.pakkit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public final class PacketCounterTest {
+    private static final long SECOND = 1000000000L;
+
+    @Test
+    public void lag() {
+        final PacketCounter counter = new PacketCounter(1);
+        counter.sample(0);
+        for (int i = 0; i < 100; i++) {
+            counter.add(10);
+        }
+        // The once-a-second sample ran two seconds late
+        counter.sample(3 * PacketCounterTest.SECOND);
+        Assert.assertEquals(100 / 3.0, counter.getPacketRate(1), 1e-9);
+        Assert.assertEquals(1000 / 3.0, counter.getByteRate(1), 1e-9);
+    }
+
+    @Test
+    public void rates() {
+        final PacketCounter counter = new PacketCounter(1);
+        Assert.assertEquals(0, counter.getPacketRate(1), 0);
+        for (int second = 0; second <= 10; second++) {
+            for (int i = 0; i < second; i++) {
+                counter.add(1);
+            }
+            counter.sample(second * PacketCounterTest.SECOND);
+        }
+        Assert.assertEquals(10, counter.getPacketRate(1), 1e-9);
+        Assert.assertEquals(5.5, counter.getPacketRate(10), 1e-9);
+        Assert.assertEquals(5.5, counter.getPacketRate(60), 1e-9);
+    }
+}
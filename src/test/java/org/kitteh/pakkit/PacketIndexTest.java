@@ -0,0 +1,59 @@
+package org.kitteh.pakkit;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public final class PacketIndexTest {
+    private static final class PacketPlayOutAnimation {
+    }
+
+    private PacketIndex index() {
+        final PacketIndex index = new PacketIndex();
+        final Map<String, String> classes = new HashMap<>();
+        for (final String name : new String[] { "PacketPlayOutAnimation", "PacketPlayOutAbilities", "PacketPlayInFlying", "PacketStatusOutPong" }) {
+            classes.put(name, "nms." + name);
+        }
+        index.addAll(classes);
+        return index;
+    }
+
+    @Test
+    public void complete() {
+        final PacketIndex index = this.index();
+        Assert.assertEquals(Arrays.asList("Abilities", "Animation"), index.complete("a"));
+        Assert.assertEquals(Arrays.asList("Animation"), index.complete("ANI"));
+        Assert.assertEquals(Arrays.asList("InFlying"), index.complete("in"));
+        Assert.assertEquals(4, index.complete("").size());
+        Assert.assertTrue(index.complete("zzz").isEmpty());
+    }
+
+    @Test
+    public void configured() {
+        final PacketIndex index = new PacketIndex();
+        final PakkitPacket pak = new PakkitPacket(PacketPlayOutAnimation.class, true, true);
+        // Discovery found nothing, the config still had it
+        index.add(pak);
+        Assert.assertSame(pak, index.get("animation").getPacket());
+        Assert.assertEquals(Arrays.asList("Animation"), index.complete("ani"));
+        final PacketIndex discovered = this.index();
+        discovered.add(pak);
+        Assert.assertSame(pak, discovered.get("OutAnimation").getPacket());
+        Assert.assertEquals(4, discovered.complete("").size());
+    }
+
+    @Test
+    public void get() {
+        final PacketIndex index = this.index();
+        Assert.assertEquals("nms.PacketPlayOutAnimation", index.get("animation").getClassName());
+        Assert.assertEquals("nms.PacketPlayOutAnimation", index.get("OutAnimation").getClassName());
+        Assert.assertEquals("nms.PacketPlayOutAnimation", index.get("packetplayoutanimation").getClassName());
+        Assert.assertEquals("nms.PacketPlayInFlying", index.get("InFlying").getClassName());
+        Assert.assertEquals("nms.PacketStatusOutPong", index.get("PacketStatusOutPong").getClassName());
+        Assert.assertNull(index.get("Flying"));
+        Assert.assertNull(index.get("InFlying").getPacket());
+    }
+}
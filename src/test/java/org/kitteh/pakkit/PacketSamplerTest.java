@@ -0,0 +1,64 @@
+package org.kitteh.pakkit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public final class PacketSamplerTest {
+    private static final class Entity {
+        private int a;
+
+        private Entity(int a) {
+            this.a = a;
+        }
+    }
+
+    @Test
+    public void entityTick() throws NoSuchFieldException {
+        final PacketSampler sampler = PacketSampler.parse("entity-tick", null);
+        final FieldAccessor accessor = FieldAccessor.of(Entity.class.getDeclaredField("a"));
+        final PacketSampler.State state = new PacketSampler.State();
+        Assert.assertTrue(sampler.sample(state, accessor, new Entity(1), 0));
+        Assert.assertTrue(sampler.sample(state, accessor, new Entity(2), 0));
+        Assert.assertFalse(sampler.sample(state, accessor, new Entity(1), 0));
+        Assert.assertTrue(sampler.sample(state, accessor, new Entity(1), 1));
+        Assert.assertTrue(sampler.sample(state, null, null, 2));
+        Assert.assertFalse(sampler.sample(state, null, null, 2));
+    }
+
+    @Test
+    public void oneIn() {
+        final PacketSampler sampler = PacketSampler.parse("one-in", "3");
+        final PacketSampler.State state = new PacketSampler.State();
+        int sampled = 0;
+        for (int i = 0; i < 30; i++) {
+            if (sampler.sample(state, null, null, 0)) {
+                sampled++;
+            }
+        }
+        Assert.assertEquals(10, sampled);
+    }
+
+    @Test
+    public void parse() {
+        Assert.assertSame(PacketSampler.ALL, PacketSampler.parse("all", null));
+        Assert.assertSame(PacketSampler.ALL, PacketSampler.parse("one-in", "1"));
+        Assert.assertNull(PacketSampler.parse("one-in", "0"));
+        Assert.assertNull(PacketSampler.parse("one-in", "lots"));
+        Assert.assertNull(PacketSampler.parse("rate", null));
+        Assert.assertNull(PacketSampler.parse("nope", "1"));
+    }
+
+    @Test
+    public void rate() {
+        final PacketSampler sampler = PacketSampler.parse("rate", "5");
+        final PacketSampler.State state = new PacketSampler.State();
+        int sampled = 0;
+        for (int i = 0; i < 100; i++) {
+            if (sampler.sample(state, null, null, 0)) {
+                sampled++;
+            }
+        }
+        // The burst, give or take a refill while looping
+        Assert.assertTrue("Sampled " + sampled, (sampled >= 5) && (sampled <= 6));
+    }
+}
@@ -0,0 +1,49 @@
+package org.kitteh.pakkit;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public final class TickHistoryTest {
+    @Test
+    public void burstiest() {
+        final TickHistory history = new TickHistory(20);
+        for (int i = 0; i < 3; i++) {
+            history.add(5, 1, 10);
+        }
+        for (int i = 0; i < 6; i++) {
+            history.add(7, 2, 100);
+        }
+        history.add(7, 3, 50);
+        history.addBytes(7, 4);
+        history.add(8, 1, 10);
+        final List<TickHistory.Tick> ticks = history.getBurstiest(10, 2);
+        Assert.assertEquals(2, ticks.size());
+        final TickHistory.Tick top = ticks.get(0);
+        Assert.assertEquals(7, top.getTick());
+        Assert.assertEquals(7, top.getPackets());
+        Assert.assertEquals(654, top.getBytes());
+        Assert.assertArrayEquals(new int[] { 2, 3 }, top.getTypeIds());
+        Assert.assertArrayEquals(new int[] { 6, 1 }, top.getTypeCounts());
+        Assert.assertEquals(5, ticks.get(1).getTick());
+    }
+
+    @Test
+    public void overflowAndWrap() {
+        final TickHistory history = new TickHistory(4);
+        for (int type = 0; type < 10; type++) {
+            history.add(1, type, 1);
+        }
+        TickHistory.Tick tick = history.getBurstiest(1, 1).get(0);
+        Assert.assertEquals(8, tick.getTypeIds().length);
+        Assert.assertEquals(2, tick.getOther());
+        // Tick 5 lands in the same slot and starts it over
+        history.add(5, 9, 1);
+        tick = history.getBurstiest(5, 5).get(0);
+        Assert.assertEquals(5, tick.getTick());
+        Assert.assertEquals(1, tick.getPackets());
+        Assert.assertEquals(0, tick.getOther());
+        Assert.assertTrue(history.getBurstiest(20, 5).isEmpty());
+    }
+}